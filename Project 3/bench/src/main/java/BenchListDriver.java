@@ -0,0 +1,54 @@
+/**
+ * Runs the list benchmarks against the project's LinkedList
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class BenchListDriver implements bench.ListDriver {
+
+    private LinkedList<Integer> list = new LinkedList<Integer>();
+
+    @Override
+    public void removeHead() {
+        list.removeHead();
+    }
+
+
+    @Override
+    public void insertHead(int value) {
+        list.insertHead(value);
+    }
+
+
+    @Override
+    public void insertBack(int value) {
+        list.insertBack(value);
+    }
+
+
+    @Override
+    public int get(int index) {
+        return list.searchByIndex(index).item;
+    }
+
+
+    @Override
+    public void moveToFront(int index) {
+        list.moveToFront(list.searchByIndex(index));
+    }
+
+
+    @Override
+    public void replaceTail(int value) {
+        LinkedList<Integer>.Node<Integer> last = list.removeTail();
+        last.item = value;
+        list.moveToFront(last);
+    }
+
+
+    @Override
+    public int size() {
+        return list.getCount();
+    }
+
+}
@@ -0,0 +1,50 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Runs the pool benchmarks against the real BufferPool
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class BenchPoolDriver implements bench.PoolDriver {
+
+    private static final int RECORD_SIZE = 4;
+
+    private RandomAccessFile file;
+    private BufferPool pool;
+
+    @Override
+    public void open(String path, int buffers) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        pool = new BufferPool(buffers, file);
+    }
+
+
+    @Override
+    public long records() {
+        return pool.getNumRecords();
+    }
+
+
+    @Override
+    public byte[] getBytes(long record) throws IOException {
+        return pool.getBytes(record, RECORD_SIZE);
+    }
+
+
+    @Override
+    public void swap(long first, long second) throws IOException {
+        byte[] one = pool.getBytes(first, RECORD_SIZE);
+        byte[] two = pool.getBytes(second, RECORD_SIZE);
+        pool.swap(one, first, two, second, false);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        pool.close();
+        file.close();
+    }
+
+}
@@ -0,0 +1,42 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Runs the end to end sort benchmarks with the project's own generator,
+ * sorter and checker
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class BenchSortDriver implements bench.SortDriver {
+
+    @Override
+    public void generate(String path, int blocks, boolean binary)
+        throws IOException {
+        Quicksort.generateFile(path, Integer.toString(blocks), binary
+            ? 'b'
+            : 'a');
+    }
+
+
+    @Override
+    public void sort(String path, int buffers) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            BufferPool pool = new BufferPool(buffers, file);
+            new QuicksortSpecialized().quicksort(pool, 0, pool.getNumRecords()
+                - 1);
+            pool.close();
+        }
+        finally {
+            file.close();
+        }
+    }
+
+
+    @Override
+    public boolean isSorted(String path) throws Exception {
+        return new CheckFile().checkFile(path);
+    }
+
+}
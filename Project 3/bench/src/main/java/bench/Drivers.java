@@ -0,0 +1,45 @@
+package bench;
+
+/**
+ * Loads the adapters that give the benchmarks their way into the project.
+ * The project's classes live in the default package, which code in a named
+ * package cannot refer to, and JMH will not run benchmarks from the default
+ * package. So each benchmark talks to an interface declared here, and a
+ * small class in the default package implements it over the real code. A
+ * call through an interface with a single implementation is inlined by the
+ * JIT, so the extra step does not show in the measurements.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public final class Drivers {
+
+    /**
+     * Not meant to be created
+     */
+    private Drivers() {
+    }
+
+
+    /**
+     * Creates an adapter by class name
+     *
+     * @param <T>
+     *            - interface the adapter implements
+     * @param className
+     *            - name of the adapter in the default package
+     * @param type
+     *            - interface the adapter implements
+     * @return a new adapter
+     */
+    public static <T> T load(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor()
+                .newInstance());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load " + className, e);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per operation on the project's LinkedList at the sizes a buffer pool
+ * would keep it at. Every benchmark leaves the list the length it found it,
+ * so the size parameter holds for the whole run.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkedListBench {
+
+    /**
+     * Random positions used, a power of two so they can wrap cheaply
+     */
+    private static final int POSITIONS = 1 << 16;
+
+    @Param({"16", "256", "4096"})
+    private int size;
+
+    private ListDriver list;
+    private int[] positions;
+    private int next;
+
+    /**
+     * Fills a list and picks the positions to visit
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        list = Drivers.load("BenchListDriver", ListDriver.class);
+        for (int i = 0; i < size; i++) {
+            list.insertBack(i);
+        }
+        Random random = new Random(3114);
+        positions = new int[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = random.nextInt(size);
+        }
+        next = 0;
+    }
+
+
+    /**
+     * Gets the next random position
+     *
+     * @return position in the list
+     */
+    private int position() {
+        int position = positions[next];
+        next = (next + 1) & (POSITIONS - 1);
+        return position;
+    }
+
+
+    /**
+     * Adds a value at the front and takes it off again
+     */
+    @Benchmark
+    public void insertAndRemoveHead() {
+        list.insertHead(-1);
+        list.removeHead();
+    }
+
+
+    /**
+     * Adds a value at the back and takes one off the front
+     */
+    @Benchmark
+    public void insertBack() {
+        list.insertBack(-1);
+        list.removeHead();
+    }
+
+
+    /**
+     * Finds the value at a random position
+     *
+     * @return the value
+     */
+    @Benchmark
+    public int get() {
+        return list.get(position());
+    }
+
+
+    /**
+     * Moves the value at a random position to the front, as a pool does on
+     * every hit
+     */
+    @Benchmark
+    public void moveToFront() {
+        list.moveToFront(position());
+    }
+
+
+    /**
+     * Drops the back value and adds one at the front, as a pool does on
+     * every miss
+     */
+    @Benchmark
+    public void replaceTail() {
+        list.replaceTail(next++);
+    }
+
+}
@@ -0,0 +1,73 @@
+package bench;
+
+/**
+ * What the list benchmarks need from the project's LinkedList, holding
+ * Integers
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public interface ListDriver {
+
+    /**
+     * Takes the value at the front off
+     */
+    void removeHead();
+
+
+    /**
+     * Adds a value at the front
+     *
+     * @param value
+     *            - value to add
+     */
+    void insertHead(int value);
+
+
+    /**
+     * Adds a value at the back
+     *
+     * @param value
+     *            - value to add
+     */
+    void insertBack(int value);
+
+
+    /**
+     * Finds the value at a position
+     *
+     * @param index
+     *            - position from the front
+     * @return the value there
+     */
+    int get(int index);
+
+
+    /**
+     * Moves the value at a position to the front, the way a pool bumps a
+     * block it just used
+     *
+     * @param index
+     *            - position from the front
+     */
+    void moveToFront(int index);
+
+
+    /**
+     * Drops the value at the back and puts a new one at the front, the way
+     * a pool replaces its least recently used block
+     *
+     * @param value
+     *            - value to add
+     */
+    void replaceTail(int value);
+
+
+    /**
+     * Gets the number of values in the list
+     *
+     * @return value count
+     */
+    int size();
+
+}
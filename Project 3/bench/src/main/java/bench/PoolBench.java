@@ -0,0 +1,161 @@
+package bench;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per record access through BufferPool.getBytes and BufferPool.swap,
+ * for several pool sizes and three ways of walking the file: straight
+ * through, at random, and the two cursors of a partition closing in from
+ * both ends.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBench {
+
+    /**
+     * Record indices walked, a power of two so the walk can wrap cheaply
+     */
+    private static final int TRACE_LENGTH = 1 << 20;
+
+    @Param({"16", "256", "4096"})
+    private int buffers;
+
+    @Param({"sequential", "random", "partition"})
+    private String pattern;
+
+    @Param({"64"})
+    private int fileMegabytes;
+
+    private PoolDriver pool;
+    private Path file;
+    private long[] trace;
+    private int next;
+
+    /**
+     * Writes a file of random records and opens a pool over it
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("poolbench", ".bin");
+        Random random = new Random(3114);
+        byte[] chunk = new byte[1 << 20];
+        RandomAccessFile out = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            for (int i = 0; i < fileMegabytes; i++) {
+                random.nextBytes(chunk);
+                out.write(chunk);
+            }
+        }
+        finally {
+            out.close();
+        }
+        pool = Drivers.load("BenchPoolDriver", PoolDriver.class);
+        pool.open(file.toString(), buffers);
+        trace = walk(pattern, pool.records(), random);
+        next = 0;
+    }
+
+
+    /**
+     * Closes the pool and deletes the file
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.close();
+        Files.delete(file);
+    }
+
+
+    /**
+     * Lays out the record indices a pattern visits
+     *
+     * @param name
+     *            - sequential, random or partition
+     * @param records
+     *            - records in the file
+     * @param random
+     *            - source of random indices
+     * @return TRACE_LENGTH record indices
+     */
+    static long[] walk(String name, long records, Random random) {
+        long[] indices = new long[TRACE_LENGTH];
+        long half = records / 2;
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            if (name.equals("sequential")) {
+                indices[i] = i % records;
+            }
+            else if (name.equals("random")) {
+                indices[i] = Math.floorMod(random.nextLong(), records);
+            }
+            else if (i % 2 == 0) {
+                indices[i] = (i / 2) % half;
+            }
+            else {
+                indices[i] = records - 1 - (i / 2) % half;
+            }
+        }
+        return indices;
+    }
+
+
+    /**
+     * Reads the next record of the walk
+     *
+     * @return the record's bytes
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @Benchmark
+    public byte[] getBytes() throws IOException {
+        long record = trace[next];
+        next = (next + 1) & (TRACE_LENGTH - 1);
+        return pool.getBytes(record);
+    }
+
+
+    /**
+     * Swaps the next two records of the walk
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @Benchmark
+    public void swap() throws IOException {
+        long first = trace[next];
+        long second = trace[next + 1];
+        next = (next + 2) & (TRACE_LENGTH - 1);
+        pool.swap(first, second);
+    }
+
+}
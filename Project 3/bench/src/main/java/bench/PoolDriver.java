@@ -0,0 +1,67 @@
+package bench;
+
+import java.io.IOException;
+
+/**
+ * What the pool benchmarks need from a buffer pool
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public interface PoolDriver {
+
+    /**
+     * Opens a pool over a file
+     *
+     * @param path
+     *            - file of 4 byte records
+     * @param buffers
+     *            - number of buffers in the pool
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    void open(String path, int buffers) throws IOException;
+
+
+    /**
+     * Gets the number of records in the file
+     *
+     * @return record count
+     */
+    long records();
+
+
+    /**
+     * Reads one record through BufferPool.getBytes
+     *
+     * @param record
+     *            - index of the record
+     * @return the record's bytes
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    byte[] getBytes(long record) throws IOException;
+
+
+    /**
+     * Swaps two records through BufferPool.swap
+     *
+     * @param first
+     *            - index of one record
+     * @param second
+     *            - index of the other record
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    void swap(long first, long second) throws IOException;
+
+
+    /**
+     * Flushes the pool and closes the file
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    void close() throws IOException;
+
+}
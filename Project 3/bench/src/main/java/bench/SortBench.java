@@ -0,0 +1,124 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wall time of a whole sort of a FileGenerator file with
+ * QuicksortSpecialized through a buffer pool. Every iteration sorts a fresh
+ * copy of the same file and checks the result afterwards, outside the
+ * timing. The big sizes take a long time; pick sizes with, for example,
+ * {@code java -jar target/benchmarks.jar SortBench -p megabytes=1,16}.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SortBench {
+
+    /**
+     * Bytes in one FileGenerator block
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    @Param({"1", "16", "256", "1024"})
+    private int megabytes;
+
+    @Param({"ascii", "binary"})
+    private String format;
+
+    @Param({"256"})
+    private int buffers;
+
+    private SortDriver sorter;
+    private Path original;
+    private Path work;
+
+    /**
+     * Generates the file every iteration starts from
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        sorter = Drivers.load("BenchSortDriver", SortDriver.class);
+        original = Files.createTempFile("sortbench", ".orig");
+        work = Files.createTempFile("sortbench", ".bin");
+        sorter.generate(original.toString(), megabytes * (1 << 20)
+            / BLOCK_SIZE, format.equals("binary"));
+    }
+
+
+    /**
+     * Puts back an unsorted copy before each sort
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @Setup(Level.Iteration)
+    public void copy() throws IOException {
+        Files.copy(original, work, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+
+    /**
+     * Makes sure the sort being timed actually sorted
+     *
+     * @throws Exception
+     *             - if the file is not sorted or cannot be read
+     */
+    @TearDown(Level.Iteration)
+    public void check() throws Exception {
+        if (!sorter.isSorted(work.toString())) {
+            throw new IllegalStateException(work + " is not sorted");
+        }
+    }
+
+
+    /**
+     * Deletes both files
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(original);
+        Files.deleteIfExists(work);
+    }
+
+
+    /**
+     * Sorts the file
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    @Benchmark
+    public void quicksort() throws IOException {
+        sorter.sort(work.toString(), buffers);
+    }
+
+}
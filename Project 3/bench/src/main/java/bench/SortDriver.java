@@ -0,0 +1,53 @@
+package bench;
+
+import java.io.IOException;
+
+/**
+ * What the sort benchmarks need: the project's file generator, its
+ * quicksort through a buffer pool, and its file checker
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public interface SortDriver {
+
+    /**
+     * Writes a file with FileGenerator
+     *
+     * @param path
+     *            - file to write
+     * @param blocks
+     *            - size in 4096 byte blocks
+     * @param binary
+     *            - true for random binary keys, false for ascii keys
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    void generate(String path, int blocks, boolean binary) throws IOException;
+
+
+    /**
+     * Sorts a file with QuicksortSpecialized through a buffer pool
+     *
+     * @param path
+     *            - file to sort
+     * @param buffers
+     *            - number of buffers in the pool
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    void sort(String path, int buffers) throws IOException;
+
+
+    /**
+     * Checks a file with CheckFile
+     *
+     * @param path
+     *            - file to check
+     * @return true if the file is sorted
+     * @throws Exception
+     *             - throws an exception on a bad file
+     */
+    boolean isSorted(String path) throws Exception;
+
+}
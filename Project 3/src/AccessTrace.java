@@ -0,0 +1,81 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the order a buffer pool is asked for blocks in, so the same run
+ * can later be replayed through every replacement policy. Back to back uses
+ * of one block are stored once with a count, which keeps the trace of a sort
+ * small: the file is a series of (long block ID, int count) pairs.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class AccessTrace {
+
+    private DataOutputStream out;
+    private long lastBlock;
+    private int repeats;
+
+    /**
+     * Starts a new trace file
+     *
+     * @param filename
+     *            - file to write the trace to
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public AccessTrace(String filename) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(filename), 1 << 16));
+        lastBlock = -1;
+        repeats = 0;
+    }
+
+
+    /**
+     * Records one use of a block
+     *
+     * @param blockID
+     *            - block that was asked for
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public synchronized void record(long blockID) throws IOException {
+        if (blockID == lastBlock && repeats < Integer.MAX_VALUE) {
+            repeats++;
+            return;
+        }
+        writePending();
+        lastBlock = blockID;
+        repeats = 1;
+    }
+
+
+    /**
+     * Writes out what is pending and closes the file
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public synchronized void close() throws IOException {
+        writePending();
+        out.close();
+    }
+
+
+    /**
+     * Writes the block being counted, if any
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void writePending() throws IOException {
+        if (repeats > 0) {
+            out.writeLong(lastBlock);
+            out.writeInt(repeats);
+        }
+    }
+
+}
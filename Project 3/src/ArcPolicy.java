@@ -0,0 +1,203 @@
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). T1 holds blocks seen once
+ * recently and T2 blocks seen at least twice. B1 and B2 remember the IDs of
+ * blocks recently thrown out of each. A miss that hits B1 means T1 was too
+ * small, a miss that hits B2 means T2 was, and the target size of T1 moves
+ * accordingly, so the policy tunes itself between recency and frequency.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class ArcPolicy implements ReplacementPolicy {
+
+    private static final int RECENT = 1;
+    private static final int FREQUENT = 2;
+
+    private SlotList t1;
+    private SlotList t2;
+    private LinkedHashSet<Long> b1;
+    private LinkedHashSet<Long> b2;
+    private long[] blockIDs;
+    private int[] list;
+    private int capacity;
+    private int target;
+    private boolean adapted;
+    private long adaptedFor;
+
+    /**
+     * Creates the policy
+     *
+     * @param slots
+     *            - number of slots
+     */
+    public ArcPolicy(int slots) {
+        int[] prev = new int[slots];
+        int[] next = new int[slots];
+        t1 = new SlotList(prev, next);
+        t2 = new SlotList(prev, next);
+        b1 = new LinkedHashSet<Long>();
+        b2 = new LinkedHashSet<Long>();
+        blockIDs = new long[slots];
+        list = new int[slots];
+        capacity = slots;
+        target = 0;
+    }
+
+
+    @Override
+    public void insert(int slot, long blockID) {
+        if (!adapted || adaptedFor != blockID) {
+            target = adapted(blockID);
+        }
+        adapted = false;
+        blockIDs[slot] = blockID;
+        if (b1.remove(blockID) || b2.remove(blockID)) {
+            list[slot] = FREQUENT;
+            t2.addFirst(slot);
+            return;
+        }
+        // a brand new block: keep the ghost lists within their bounds
+        if (t1.size() + b1.size() >= capacity) {
+            if (!b1.isEmpty()) {
+                dropOldest(b1);
+            }
+        }
+        else if (t1.size() + t2.size() + b1.size() + b2.size() >= 2
+            * capacity && !b2.isEmpty()) {
+            dropOldest(b2);
+        }
+        list[slot] = RECENT;
+        t1.addFirst(slot);
+    }
+
+
+    @Override
+    public void access(int slot) {
+        if (list[slot] == RECENT) {
+            t1.remove(slot);
+            list[slot] = FREQUENT;
+            t2.addFirst(slot);
+        }
+        else {
+            t2.moveToFront(slot);
+        }
+    }
+
+
+    @Override
+    public int victim(
+        long incoming,
+        IntPredicate preferred,
+        IntPredicate evictable) {
+        // the target only moves once a slot is found, so asking again after
+        // finding none moves it once in all
+        int moved = adapted(incoming);
+        boolean fromRecent = t1.size() > 0 && (t1.size() > moved || (b2
+            .contains(incoming) && t1.size() == moved));
+        int slot = pick(fromRecent, preferred, PREFERRED_WINDOW);
+        if (slot < 0) {
+            slot = pick(fromRecent, evictable, Integer.MAX_VALUE);
+        }
+        if (slot < 0) {
+            return -1;
+        }
+        target = moved;
+        adapted = true;
+        adaptedFor = incoming;
+        if (list[slot] == RECENT) {
+            t1.remove(slot);
+            b1.add(blockIDs[slot]);
+            if (b1.size() > capacity) {
+                dropOldest(b1);
+            }
+        }
+        else {
+            t2.remove(slot);
+            b2.add(blockIDs[slot]);
+            if (b2.size() > capacity) {
+                dropOldest(b2);
+            }
+        }
+        list[slot] = 0;
+        return slot;
+    }
+
+
+    @Override
+    public void remove(int slot) {
+        if (list[slot] == RECENT) {
+            t1.remove(slot);
+        }
+        else if (list[slot] == FREQUENT) {
+            t2.remove(slot);
+        }
+        list[slot] = 0;
+    }
+
+
+    /**
+     * Gets the current target size of T1
+     *
+     * @return how many slots ARC wants to give blocks seen only once
+     */
+    public int getTarget() {
+        return target;
+    }
+
+
+    /**
+     * Finds the slot to throw out among those that match, from the list
+     * the target says first
+     *
+     * @param fromRecent
+     *            - true to look in T1 before T2
+     * @param matching
+     *            - tells whether a slot may be picked
+     * @param limit
+     *            - most slots to look at in each list
+     * @return slot to throw out, -1 if none match
+     */
+    private int pick(boolean fromRecent, IntPredicate matching, int limit) {
+        int slot = (fromRecent ? t1 : t2).lastMatching(matching, limit);
+        if (slot < 0) {
+            slot = (fromRecent ? t2 : t1).lastMatching(matching, limit);
+        }
+        return slot;
+    }
+
+
+    /**
+     * Works out where the target size of T1 moves to when a missed block is
+     * remembered in one of the ghost lists
+     *
+     * @param blockID
+     *            - block that missed
+     * @return the new target, the same one if the block is in neither
+     */
+    private int adapted(long blockID) {
+        if (b1.contains(blockID)) {
+            int delta = b1.size() >= b2.size() ? 1 : b2.size() / b1.size();
+            return Math.min(capacity, target + delta);
+        }
+        if (b2.contains(blockID)) {
+            int delta = b2.size() >= b1.size() ? 1 : b1.size() / b2.size();
+            return Math.max(0, target - delta);
+        }
+        return target;
+    }
+
+
+    /**
+     * Forgets the oldest ID in a ghost list
+     *
+     * @param ghosts
+     *            - B1 or B2
+     */
+    private static void dropOldest(LinkedHashSet<Long> ghosts) {
+        ghosts.remove(ghosts.iterator().next());
+    }
+
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where a buffer pool gets its blocks from and puts them back. The pool only
+ * decides which blocks stay in memory; the store decides how a block gets
+ * between the file and a buffer.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public interface BlockStore {
+
+    /**
+     * Gets the length of the underlying file
+     *
+     * @return file length in bytes
+     */
+    long length();
+
+
+    /**
+     * Gets the size of the blocks this store hands out
+     *
+     * @return block size in bytes
+     */
+    int blockSize();
+
+
+    /**
+     * Makes a block available to the pool
+     *
+     * @param blockID
+     *            - id of the block
+     * @param frame
+     *            - memory the pool set aside for the block, may be null when
+     *            the store does not copy blocks. Only this call uses the
+     *            frame, so the store may move its position and limit.
+     * @return buffer holding the block, either frame filled with the block's
+     *         bytes or a view of the block the store already has in memory
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    ByteBuffer load(long blockID, ByteBuffer frame) throws IOException;
+
+
+    /**
+     * Writes a block back to the file
+     *
+     * @param blockID
+     *            - id of the block
+     * @param data
+     *            - buffer returned by load for this block. Only this call
+     *            uses it, so the store may move its position and limit.
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    void store(long blockID, ByteBuffer data) throws IOException;
+
+
+    /**
+     * Writes blocks with consecutive ids back to the file. A store that can
+     * write them in one go should; by default each is stored on its own.
+     *
+     * @param firstBlockID
+     *            - id of the first block
+     * @param data
+     *            - buffers returned by load for each block, in order. Only
+     *            this call uses them, so the store may move their positions
+     *            and limits.
+     * @param count
+     *            - number of blocks, from index 0
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    default void storeRun(long firstBlockID, ByteBuffer[] data, int count)
+        throws IOException {
+        for (int i = 0; i < count; i++) {
+            store(firstBlockID + i, data[i]);
+        }
+    }
+
+
+    /**
+     * Tells the pool whether load copies blocks into the frame it is given.
+     * When it does not, the pool need not set aside memory for its frames.
+     *
+     * @return true if load fills the frame passed to it
+     */
+    boolean copiesBlocks();
+
+
+    /**
+     * Makes sure everything stored so far has reached the file
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    void force() throws IOException;
+
+}
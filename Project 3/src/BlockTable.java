@@ -0,0 +1,171 @@
+/**
+ * Open addressing hash table that maps a block ID to the buffer holding that
+ * block. Uses linear probing with backward shift deletion so get, put and
+ * remove are all O(1) and none of them allocate once the table is sized.
+ *
+ * @param <E>
+ *            - type of value stored for each block
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class BlockTable<E> {
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int count;
+
+    /**
+     * Creates a table that can hold the given number of blocks without
+     * growing
+     *
+     * @param expected
+     *            - number of blocks we expect to hold at once
+     */
+    public BlockTable(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        count = 0;
+    }
+
+
+    /**
+     * Gets the value stored for a block
+     *
+     * @param key
+     *            - block ID
+     * @return the value for this block, null if the block is not present
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long key) {
+        int slot = slot(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return (E)values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+
+    /**
+     * Stores a value for a block, replacing any value already there
+     *
+     * @param key
+     *            - block ID
+     * @param value
+     *            - value to store, must not be null
+     */
+    public void put(long key, E value) {
+        if ((count + 1) * 2 > keys.length) {
+            grow();
+        }
+        int slot = slot(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        count++;
+    }
+
+
+    /**
+     * Removes a block from the table
+     *
+     * @param key
+     *            - block ID
+     * @return the value that was removed, null if the block was not present
+     */
+    @SuppressWarnings("unchecked")
+    public E remove(long key) {
+        int slot = slot(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                E removed = (E)values[slot];
+                shiftBack(slot);
+                count--;
+                return removed;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+
+    /**
+     * Gets the amount of blocks in the table
+     *
+     * @return count of blocks in the table
+     */
+    public int getCount() {
+        return count;
+    }
+
+
+    /**
+     * Closes the gap left at a removed slot by moving later entries of the
+     * same probe run back, so lookups never need tombstones
+     *
+     * @param gap
+     *            - slot that was just emptied
+     */
+    private void shiftBack(int gap) {
+        int slot = (gap + 1) & mask;
+        while (values[slot] != null) {
+            int home = slot(keys[slot]);
+            // move the entry if its home is not between the gap and the slot
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        values[gap] = null;
+    }
+
+
+    /**
+     * Doubles the size of the table and re-inserts every entry
+     */
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        count = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (E)oldValues[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the home slot of a block ID
+     *
+     * @param key
+     *            - block ID
+     * @return slot the probe for this key starts at
+     */
+    private int slot(long key) {
+        int hash = (int)(key ^ (key >>> 32)) * 0x9E3779B1;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+}
@@ -1,312 +1,1906 @@
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
 
 /**
- * Mediator for quicksort and random access file
+ * Mediator for quicksort and random access file. The pool is safe to share
+ * between threads. Its buffers are split into stripes by block ID and each
+ * stripe has its own lock, table and replacement policy, so threads working
+ * on different blocks rarely wait on each other. A buffer is pinned while a
+ * record in it is being read or written, and pinned buffers are never
+ * thrown out. Disk reads and writes happen outside the stripe locks. Every
+ * buffer's memory is a slice of a few large direct buffers set aside when
+ * the pool is made, and buffers are reused as blocks come and go, so a sort
+ * allocates nothing once it is running.
+ * 
+ * With write-behind started, a background thread writes dirty buffers back
+ * once too many pile up, so a miss usually finds a clean buffer to reuse and
+ * costs one read instead of a write followed by a read. With prefetching
+ * started, a miss next to a recent miss reads the following blocks in the
+ * same direction ahead of time, so the scans of a partition mostly find
+ * their blocks already loaded.
  * 
  * @author {Gabriel Holder}
  * @version {October 2023}
  */
-public class BufferPool {
+public class BufferPool implements Closeable {
+    private BlockStore store;
+    private long fileLength;
+    private long numRecords;
+    private int maxBuffers;
+    private int blockSize;
+    private RecordSchema schema;
+    private int recordSize;
+    private boolean defaultLayout;
+    private Stripe[] stripes;
+    private volatile AccessTrace trace;
+    private AtomicInteger dirtyCount;
+    private ReentrantLock writing;
+    private volatile WriteBehind writer;
+    private volatile Prefetcher prefetcher;
+    private boolean closed;
+    private PoolStats stats;
+
+    /**
+     * Replacement policy used when none is given
+     */
+    public static final String DEFAULT_POLICY = "lru";
+
+    /**
+     * Block size used when none is given, one disk sector's worth of records
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * Smallest block size a pool may use
+     */
+    public static final int MIN_BLOCK_SIZE = 4096;
+
+    /**
+     * Largest block size a pool may use
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Most neighbouring blocks written back in one call to the store
+     */
+    public static final int MAX_RUN = 256;
+
+    /**
+     * Largest single slab of frame memory, a multiple of every block size
+     */
+    private static final int SLAB_SIZE = 1 << 30;
+
+    /**
+     * Constructor for a buffer pool
+     * 
+     * @param numbBuffers
+     *            - number of buffers from command line
+     * @param randFile
+     *            - file with input
+     * @throws IOException
+     *             - Throws exception on bad files
+     */
+    public BufferPool(int numbBuffers, RandomAccessFile randFile)
+        throws IOException {
+        this(numbBuffers, DEFAULT_BLOCK_SIZE, randFile);
+    }
+
+
+    /**
+     * Constructor for a buffer pool with a given block size
+     * 
+     * @param numbBuffers
+     *            - number of buffers to keep in memory
+     * @param blockBytes
+     *            - size of each block in bytes, a power of two between
+     *            MIN_BLOCK_SIZE and MAX_BLOCK_SIZE
+     * @param randFile
+     *            - file with input
+     * @throws IOException
+     *             - Throws exception on bad files
+     */
+    public BufferPool(
+        int numbBuffers,
+        int blockBytes,
+        RandomAccessFile randFile)
+        throws IOException {
+        this(numbBuffers, new FileBlockStore(randFile, blockBytes));
+    }
+
+
+    /**
+     * Constructor for a buffer pool over any block store
+     * 
+     * @param numbBuffers
+     *            - number of buffers to keep in memory
+     * @param blockStore
+     *            - where blocks are read from and written back to
+     */
+    public BufferPool(int numbBuffers, BlockStore blockStore) {
+        this(numbBuffers, 1, blockStore);
+    }
+
+
+    /**
+     * Constructor for a buffer pool split into lock stripes. Every stripe
+     * gets an equal share of the buffers, and never fewer than two.
+     * 
+     * @param numbBuffers
+     *            - number of buffers to keep in memory
+     * @param numStripes
+     *            - number of independently locked stripes
+     * @param blockStore
+     *            - where blocks are read from and written back to
+     */
+    public BufferPool(int numbBuffers, int numStripes, BlockStore blockStore) {
+        this(numbBuffers, numStripes, DEFAULT_POLICY, blockStore);
+    }
+
+
+    /**
+     * Constructor for a buffer pool with a given replacement policy
+     * 
+     * @param numbBuffers
+     *            - number of buffers to keep in memory
+     * @param numStripes
+     *            - number of independently locked stripes
+     * @param policyName
+     *            - one of ReplacementPolicy.NAMES, used in every stripe
+     * @param blockStore
+     *            - where blocks are read from and written back to
+     */
+    public BufferPool(
+        int numbBuffers,
+        int numStripes,
+        String policyName,
+        BlockStore blockStore) {
+        this(numbBuffers, numStripes, policyName, RecordSchema.DEFAULT,
+            blockStore);
+    }
+
+
+    /**
+     * Constructor for a buffer pool over records of a given layout
+     * 
+     * @param numbBuffers
+     *            - number of buffers to keep in memory
+     * @param numStripes
+     *            - number of independently locked stripes
+     * @param policyName
+     *            - one of ReplacementPolicy.NAMES, used in every stripe
+     * @param recordSchema
+     *            - size of the records and where their keys are
+     * @param blockStore
+     *            - where blocks are read from and written back to
+     */
+    public BufferPool(
+        int numbBuffers,
+        int numStripes,
+        String policyName,
+        RecordSchema recordSchema,
+        BlockStore blockStore) {
+        if (numbBuffers < 1) {
+            throw new IllegalArgumentException(
+                "Need at least one buffer, got " + numbBuffers);
+        }
+        checkBlockSize(blockStore.blockSize());
+        blockSize = blockStore.blockSize();
+        store = blockStore;
+        maxBuffers = numbBuffers;
+        fileLength = blockStore.length();
+        schema = recordSchema;
+        recordSize = recordSchema.size();
+        defaultLayout = recordSchema.isDefault();
+        numRecords = fileLength / recordSize;
+        dirtyCount = new AtomicInteger();
+        writing = new ReentrantLock();
+        stats = new PoolStats();
+        stats.countHitsFrom(this::countHits);
+
+        int count = Math.max(1, Math.min(numStripes, numbBuffers / 2));
+        long numBlocks = fileLength / blockSize + 1;
+        ByteBuffer[] frames = allocateFrames(numbBuffers);
+        int nextFrame = 0;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            int capacity = numbBuffers / count;
+            if (i < numbBuffers % count) {
+                capacity++;
+            }
+            stripes[i] = new Stripe(capacity, (int)Math.min(capacity,
+                numBlocks / count + 1), policyName);
+            for (int slot = 0; slot < capacity; slot++) {
+                Buffer buffer = new Buffer(frames[nextFrame++]);
+                buffer.slot = slot;
+                stripes[i].frames[slot] = buffer;
+            }
+        }
+
+    }
+
+
+    /**
+     * Works out how many buffers of a given block size fit in a memory budget
+     * 
+     * @param poolMemory
+     *            - bytes the pool may use for its buffers
+     * @param blockBytes
+     *            - size of each block in bytes
+     * @return number of buffers that fit, at least one
+     */
+    public static int buffersForMemory(long poolMemory, int blockBytes) {
+        checkBlockSize(blockBytes);
+        long count = poolMemory / blockBytes;
+        if (count < 1) {
+            return 1;
+        }
+        return (int)Math.min(count, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Sets aside the memory for every frame at once, as slices of direct
+     * buffers of at most SLAB_SIZE bytes each. Direct memory lets the file
+     * channel read and write frames without copying through a temporary
+     * buffer.
+     * 
+     * @param count
+     *            - number of frames
+     * @return one block sized buffer per frame, all null when the store
+     *         does not copy blocks
+     * @throws IllegalArgumentException
+     *             - if the JVM will not give the pool that much direct
+     *             memory
+     */
+    private ByteBuffer[] allocateFrames(int count) {
+        ByteBuffer[] frames = new ByteBuffer[count];
+        if (!store.copiesBlocks()) {
+            return frames;
+        }
+        int perSlab = SLAB_SIZE / blockSize;
+        for (int first = 0; first < count; first += perSlab) {
+            int frameCount = Math.min(perSlab, count - first);
+            ByteBuffer slab;
+            try {
+                slab = ByteBuffer.allocateDirect(frameCount * blockSize);
+            }
+            catch (OutOfMemoryError e) {
+                throw new IllegalArgumentException("Cannot set aside "
+                    + (long)count * blockSize + " bytes of direct memory for "
+                    + count + " buffers of " + blockSize + " bytes, use fewer "
+                    + "buffers or raise -XX:MaxDirectMemorySize", e);
+            }
+            for (int i = 0; i < frameCount; i++) {
+                frames[first + i] = slab.slice(i * blockSize, blockSize);
+            }
+        }
+        return frames;
+    }
+
+
+    /**
+     * Makes sure a block size is a power of two the pool supports
+     * 
+     * @param blockBytes
+     *            - block size to check
+     * @throws IllegalArgumentException
+     *             - if the pool cannot use blocks of that size
+     */
+    public static void checkBlockSize(int blockBytes) {
+        if (blockBytes < MIN_BLOCK_SIZE || blockBytes > MAX_BLOCK_SIZE
+            || Integer.bitCount(blockBytes) != 1) {
+            throw new IllegalArgumentException("Block size must be a power "
+                + "of two between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE
+                + " bytes, got " + blockBytes);
+        }
+    }
+
+
+    /**
+     * Gets the bytes from this buffer pool based on the position of the byte it
+     * is looking to access
+     * 
+     * @param pos
+     *            - index of the record we wish to access in the input file
+     * @param size
+     *            - bytes to copy from the start of the record, at most the
+     *            record size
+     * @return returns a byte array of the given size
+     * @throws IOException
+     */
+    public byte[] getBytes(long pos, int size) throws IOException {
+        // should only pass key value positions
+        long blockID = (pos * recordSize) / blockSize;
+        int keySpot = (int)((pos * recordSize) % blockSize);
+        Buffer buffer = pin(blockID);
+        try {
+            return buffer.bufferGetBytes(keySpot, size);
+        }
+        finally {
+            unpin(buffer);
+        }
+    }
+
+
+    /**
+     * Makes the error thrown when a method is used on records it cannot
+     * handle
+     * 
+     * @param message
+     *            - what the method needs
+     * @return exception to throw
+     */
+    private IllegalStateException layoutError(String message) {
+        return new IllegalStateException(message + ", this pool holds "
+            + recordSize + " byte records keyed by " + schema.keyWidth()
+            + " bytes at offset " + schema.keyOffset());
+    }
+
+
+    /**
+     * Reads a block from the input file into a new buffer that is not part
+     * of the pool
+     * 
+     * @param blockID
+     *            - id of the block
+     * @return returns the buffer it read
+     * 
+     * @throws IOException
+     *             - throws a input output exception
+     */
+    public Buffer read(long blockID) throws IOException {
+
+        Buffer buffer = new Buffer(store.copiesBlocks() ? ByteBuffer.allocate(
+            blockSize) : null);
+        buffer.setID(blockID);
+        buffer.loaded(store.load(blockID, buffer.io));
+        return buffer;
+    }
+
+
+    /**
+     * Writes every dirty buffer back to the file, leaving them all in the
+     * pool. The buffers of all stripes are written together in block order,
+     * so neighbouring blocks go out as one write. Waits for any write-behind
+     * already going on to finish first.
+     * 
+     * @throws IOException
+     *             throws an exception on a bad file
+     */
+    public void write() throws IOException {
+        writing.lock();
+        try {
+            Buffer[] dirty = new Buffer[maxBuffers];
+            int count = 0;
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    for (int i = 0; i < stripe.allocated; i++) {
+                        Buffer buffer = stripe.frames[i];
+                        if (buffer.isDirty() && !buffer.loading) {
+                            buffer.pins.incrementAndGet();
+                            dirty[count++] = buffer;
+                        }
+                    }
+                }
+                finally {
+                    stripe.lock.unlock();
+                }
+            }
+            writeSorted(dirty, count);
+        }
+        finally {
+            writing.unlock();
+        }
+    }
+
+
+    /**
+     * Writes pinned buffers back in block order, each run of neighbouring
+     * blocks in one call to the store, and unpins them all
+     * 
+     * @param buffers
+     *            - pinned buffers, put in block order
+     * @param count
+     *            - number of buffers, from index 0
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void writeSorted(Buffer[] buffers, int count) throws IOException {
+        Arrays.sort(buffers, 0, count, Comparator.comparingLong(
+            Buffer::getBlockID));
+        ByteBuffer[] run = new ByteBuffer[Math.min(count, MAX_RUN)];
+        try {
+            int start = 0;
+            while (start < count) {
+                long first = buffers[start].getBlockID();
+                int length = 1;
+                while (start + length < count && length < run.length
+                    && buffers[start + length].getBlockID() == first
+                        + length) {
+                    length++;
+                }
+                for (int i = 0; i < length; i++) {
+                    buffers[start + i].setDirtyBuffer(false);
+                    run[i] = buffers[start + i].io;
+                }
+                long begin = System.nanoTime();
+                store.storeRun(first, run, length);
+                if (store.copiesBlocks()) {
+                    long nanos = (System.nanoTime() - begin) / length;
+                    for (int i = 0; i < length; i++) {
+                        stats.write(validBytes(first + i), nanos);
+                    }
+                }
+                start += length;
+            }
+        }
+        finally {
+            for (int i = 0; i < count; i++) {
+                unpin(buffers[i]);
+                buffers[i] = null;
+            }
+        }
+    }
+
+
+    /**
+     * Flushes the buffer pool by writing all dirty buffers back to the file
+     * 
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        WriteBehind current = writer;
+        if (current != null) {
+            current.checkFailure();
+        }
+        write();
+        store.force();
+    }
+
+
+    /**
+     * Starts a background thread that writes dirty buffers back whenever
+     * more than highWater of them are dirty, until half that many are left.
+     * Does nothing for stores that write through on their own, if the writer
+     * is already running, or once the pool is closed.
+     * 
+     * @param highWater
+     *            - dirty buffers allowed before the writer wakes up, at
+     *            least one
+     */
+    public synchronized void startWriteBehind(int highWater) {
+        if (writer != null || closed || !store.copiesBlocks()) {
+            return;
+        }
+        if (highWater < 1) {
+            throw new IllegalArgumentException(
+                "High-water mark must be positive, got " + highWater);
+        }
+        writer = new WriteBehind(highWater);
+        writer.thread.start();
+    }
+
+
+    /**
+     * Starts reading ahead of sequential scans. Once a miss lands next to a
+     * recent miss, the next depth blocks in the same direction are read in
+     * the background, and each time one of them is used the window moves on
+     * by a block. The depth is cut to an eighth of the pool so read-ahead
+     * for a few scans cannot push out the blocks they are working on. Does
+     * nothing for stores that do not copy blocks, where the operating system
+     * already reads ahead, for pools too small to spare the room, if
+     * prefetching is running, or once the pool is closed.
+     * 
+     * @param depth
+     *            - blocks to keep read ahead of a scan, at least one
+     */
+    public synchronized void startPrefetch(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException(
+                "Prefetch depth must be positive, got " + depth);
+        }
+        depth = Math.min(depth, maxBuffers / 8);
+        if (prefetcher != null || closed || !store.copiesBlocks()
+            || depth < 1) {
+            return;
+        }
+        prefetcher = new Prefetcher(depth);
+    }
+
+
+    /**
+     * Stops prefetching and the write-behind thread, then flushes the pool.
+     * The pool may still be used afterwards, it just reads and writes
+     * synchronously and has to be flushed by hand. Closing it again does
+     * nothing.
+     * 
+     * @throws IOException
+     *             throws an exception on a bad file
+     */
+    @Override
+    public void close() throws IOException {
+        WriteBehind current;
+        Prefetcher reader;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = writer;
+            writer = null;
+            reader = prefetcher;
+            prefetcher = null;
+        }
+        if (reader != null) {
+            reader.stop();
+        }
+        if (current != null) {
+            current.stop();
+        }
+        try {
+            flush();
+        }
+        finally {
+            if (current != null) {
+                current.checkFailure();
+            }
+        }
+    }
+
+
+    /**
+     * Gets the counters this pool keeps on its cache and its disk traffic
+     * 
+     * @return stats of this pool
+     */
+    public PoolStats getStats() {
+        return stats;
+    }
+
+
+    /**
+     * Adds up the hits every stripe counted. A stripe counts under its own
+     * lock, so each count is read under it too.
+     * 
+     * @return hits so far
+     */
+    private long countHits() {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                total += stripe.hits;
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * Gets the number of buffers whose changes have not been written back
+     * 
+     * @return dirty buffer count
+     */
+    public int getDirtyCount() {
+        return dirtyCount.get();
+    }
+
+
+    /**
+     * Starts or stops recording which blocks the pool is asked for
+     * 
+     * @param accessTrace
+     *            - trace to record to, null to stop recording
+     */
+    public void setTrace(AccessTrace accessTrace) {
+        trace = accessTrace;
+    }
+
+
+    /**
+     * Gets the file length of input
+     * 
+     * @return file length of input in bytes
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+
+    /**
+     * Gets the number of records
+     * 
+     * @return number of records in the whole file
+     */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+
+    /**
+     * Gets the layout of the records
+     * 
+     * @return record schema the pool was made with
+     */
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+
+    /**
+     * Gets the size of each block in this pool
+     * 
+     * @return block size in bytes
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Gets the most buffers this pool will hold at once
+     * 
+     * @return maximum number of buffers
+     */
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+
+    /**
+     * Gets the number of lock stripes the buffers are split into
+     * 
+     * @return stripe count
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+
+    /**
+     * Swap method switches two records, each given as all of its bytes
+     * @param array1 - record 1
+     * @param position1 - position of record 1
+     * @param array2 - record 2
+     * @param position2 - position of record 2
+     * @param pivotSwap - lets us know if this is a pivot we're swapping
+     * @throws IOException if file not found
+     */
+    public void swap(
+        byte[] array1, long position1, byte[] array2, long position2,
+boolean pivotSwap) throws IOException {
+        
+        long block1id = (position1 * recordSize) / blockSize;
+        int positionInBlock = (int)((position1 * recordSize) % blockSize);
+
+        long block2id = (position2 * recordSize) / blockSize;
+        int positionInBlock2 = (int)((position2 * recordSize) % blockSize);
+
+        Buffer buffer1 = pin(block1id);
+        try {
+            buffer1.setBytes(array2, positionInBlock, recordSize);
+            buffer1.setDirtyBuffer(true);
+        }
+        finally {
+            unpin(buffer1);
+        }
+
+        Buffer buffer2 = pin(block2id);
+        try {
+            buffer2.setBytes(array1, positionInBlock2, recordSize);
+            buffer2.setDirtyBuffer(true);
+        }
+        finally {
+            unpin(buffer2);
+        }
+    }
+
+
+    /**
+     * Gets the key of a record as the schema reads it, straight out of the
+     * buffer holding it. Keys of any layout compare as plain longs.
+     * 
+     * @param recordIndex
+     *            - index of the record in the file
+     * @return the record's key, ordered like the key itself
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public long getSortKey(long recordIndex) throws IOException {
+        // kept tiny so the default layout's key read is inlined into the sorts
+        return defaultLayout ? shortKey(recordIndex) : schemaKey(recordIndex);
+    }
+
+
+    /**
+     * Reads the key of a record through the schema
+     * 
+     * @param recordIndex
+     *            - index of the record in the file
+     * @return the record's key, ordered like the key itself
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private long schemaKey(long recordIndex) throws IOException {
+        long bytePosition = recordIndex * recordSize;
+        Buffer buffer = pin(bytePosition / blockSize);
+        try {
+            return schema.key(buffer.data, (int)(bytePosition % blockSize));
+        }
+        finally {
+            unpin(buffer);
+        }
+    }
+
+
+    /**
+     * Reads the keys of consecutive records as getSortKey would, pinning
+     * each block once
+     * 
+     * @param first
+     *            - index of the first record
+     * @param into
+     *            - array to fill with keys
+     * @param count
+     *            - number of keys to read
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void readSortKeys(long first, long[] into, int count)
+        throws IOException {
+        int done = 0;
+        while (done < count) {
+            long bytePosition = (first + done) * recordSize;
+            int spot = (int)(bytePosition % blockSize);
+            int inBlock = Math.min(count - done, (blockSize - spot)
+                / recordSize);
+            Buffer buffer = pin(bytePosition / blockSize);
+            try {
+                for (int i = 0; i < inBlock; i++) {
+                    into[done + i] = schema.key(buffer.data, spot + i
+                        * recordSize);
+                }
+            }
+            finally {
+                unpin(buffer);
+            }
+            done += inBlock;
+        }
+    }
+
+
+    /**
+     * Gets the key of a 4 byte record straight out of the buffer holding it,
+     * without copying the record anywhere. Only the default record layout
+     * has a short key in front; getSortKey reads any layout's key.
+     * 
+     * @param recordIndex
+     *            - index of the record in the file
+     * @return the record's key, its first two bytes as a big endian short
+     * @throws IOException
+     *             - throws an exception on a bad file
+     * @throws IllegalStateException
+     *             - if the pool holds another layout
+     */
+    public short getKey(long recordIndex) throws IOException {
+        if (!defaultLayout) {
+            throw layoutError("getKey needs the default record layout");
+        }
+        return shortKey(recordIndex);
+    }
+
+
+    /**
+     * Reads the short key in front of a 4 byte record, with no check of the
+     * layout
+     * 
+     * @param recordIndex
+     *            - index of the record in the file
+     * @return the record's first two bytes as a big endian short
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private short shortKey(long recordIndex) throws IOException {
+        long bytePosition = recordIndex * 4;
+        Buffer buffer = pin(bytePosition / blockSize);
+        try {
+            return buffer.getShort((int)(bytePosition % blockSize));
+        }
+        finally {
+            unpin(buffer);
+        }
+    }
+
+
+    /**
+     * Gets a whole 4 byte record packed into an int, key in the high two
+     * bytes and value in the low two bytes for the default layout
+     * 
+     * @param recordIndex
+     *            - index of the record in the file
+     * @return the record as a big endian int
+     * @throws IOException
+     *             - throws an exception on a bad file
+     * @throws IllegalStateException
+     *             - if the pool holds records of another size
+     */
+    public int getRecord(long recordIndex) throws IOException {
+        if (recordSize != 4) {
+            throw layoutError("getRecord needs 4 byte records");
+        }
+        long bytePosition = recordIndex * 4;
+        Buffer buffer = pin(bytePosition / blockSize);
+        try {
+            return buffer.getInt((int)(bytePosition % blockSize));
+        }
+        finally {
+            unpin(buffer);
+        }
+    }
+
+
+    /**
+     * Overwrites a 4 byte record and marks its buffer dirty
+     * 
+     * @param recordIndex
+     *            - index of the record in the file
+     * @param record
+     *            - record packed into an int as from getRecord
+     * @throws IOException
+     *             - throws an exception on a bad file
+     * @throws IllegalStateException
+     *             - if the pool holds records of another size
+     */
+    public void setRecord(long recordIndex, int record) throws IOException {
+        if (recordSize != 4) {
+            throw layoutError("setRecord needs 4 byte records");
+        }
+        long bytePosition = recordIndex * 4;
+        Buffer buffer = pin(bytePosition / blockSize);
+        try {
+            buffer.putInt((int)(bytePosition % blockSize), record);
+            buffer.setDirtyBuffer(true);
+        }
+        finally {
+            unpin(buffer);
+        }
+    }
+
+
+    /**
+     * Copies a run of consecutive records into an array, pinning each block
+     * the run touches once instead of once per record. Each record takes
+     * up its size over 4 ints in a row, read as big endian.
+     * 
+     * @param first
+     *            - index of the first record
+     * @param into
+     *            - array the records are copied to, from index 0
+     * @param count
+     *            - number of records to copy
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void readRecords(long first, int[] into, int count)
+        throws IOException {
+        int words = recordSize / 4;
+        int done = 0;
+        while (done < count) {
+            long bytePosition = (first + done) * recordSize;
+            int spot = (int)(bytePosition % blockSize);
+            int inBlock = Math.min(count - done, (blockSize - spot)
+                / recordSize);
+            Buffer buffer = pin(bytePosition / blockSize);
+            try {
+                int at = done * words;
+                for (int i = 0; i < inBlock * words; i++) {
+                    into[at + i] = buffer.getInt(spot + i * 4);
+                }
+            }
+            finally {
+                unpin(buffer);
+            }
+            done += inBlock;
+        }
+    }
+
+
+    /**
+     * Overwrites a run of consecutive records from an array, pinning each
+     * block the run touches once and marking it dirty. A block the run
+     * covers from end to end is not read from the file first when it is
+     * missing from the pool. Records are laid out as readRecords gives
+     * them.
+     * 
+     * @param first
+     *            - index of the first record
+     * @param from
+     *            - array holding the records, from index 0
+     * @param count
+     *            - number of records to write
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void writeRecords(long first, int[] from, int count)
+        throws IOException {
+        int words = recordSize / 4;
+        int done = 0;
+        while (done < count) {
+            long bytePosition = (first + done) * recordSize;
+            int spot = (int)(bytePosition % blockSize);
+            int inBlock = Math.min(count - done, (blockSize - spot)
+                / recordSize);
+            long blockID = bytePosition / blockSize;
+            Buffer buffer = pin(blockID, spot == 0 && inBlock
+                * recordSize >= validBytes(blockID), true);
+            try {
+                int at = done * words;
+                for (int i = 0; i < inBlock * words; i++) {
+                    buffer.putInt(spot + i * 4, from[at + i]);
+                }
+                buffer.setDirtyBuffer(true);
+            }
+            finally {
+                unpin(buffer);
+            }
+            done += inBlock;
+        }
+    }
+
+
+    /**
+     * Exchanges two records in place. Both blocks are pinned once, the
+     * records are exchanged between the buffers and both buffers are marked
+     * dirty. Nothing is allocated. If the second block is missing and every
+     * buffer that could hold it is pinned, the first block is let go and
+     * the records are moved one at a time, so a swap never waits on a pin
+     * it holds itself. The swap is not atomic, so no other thread may be
+     * working on either record at the same time.
+     * 
+     * @param first
+     *            - index of one record
+     * @param second
+     *            - index of the other record
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void swapRecords(long first, long second) throws IOException {
+        if (first == second) {
+            return;
+        }
+        long firstPosition = first * recordSize;
+        long secondPosition = second * recordSize;
+        int firstSpot = (int)(firstPosition % blockSize);
+        int secondSpot = (int)(secondPosition % blockSize);
+        long secondBlock = secondPosition / blockSize;
+        Buffer one = pin(firstPosition / blockSize);
+        try {
+            if (one.getBlockID() == secondBlock) {
+                exchange(one, firstSpot, one, secondSpot);
+                return;
+            }
+            Buffer two = pin(secondBlock, false, false);
+            if (two != null) {
+                try {
+                    exchange(one, firstSpot, two, secondSpot);
+                }
+                finally {
+                    unpin(two);
+                }
+                return;
+            }
+        }
+        finally {
+            unpin(one);
+        }
+        int[] firstRecord = copyRecord(firstPosition, null, false);
+        int[] secondRecord = copyRecord(secondPosition, null, false);
+        copyRecord(firstPosition, secondRecord, true);
+        copyRecord(secondPosition, firstRecord, true);
+    }
+
+
     /**
-     * Compare keys and swap two records
+     * Copies one record out of or into the pool, holding only its own block
+     * 
+     * @param bytePosition
+     *            - where the record starts in the file
+     * @param record
+     *            - the record as ints to write, or null when reading
+     * @param write
+     *            - true to write the record, false to read it
+     * @return the record as ints
+     * @throws IOException
+     *             - throws an exception on a bad file
      */
-    private RandomAccessFile file;
-    private Buffer[] bufferPool;
-    private int fileLength;
-    private int numRecords;
-    private Buffer lru;
-    private int maxBuffers;
-    private int numBuffers;
-    private static final int RECORD_SIZE = 4;
-    private LinkedList<Buffer> linkedList;
+    private int[] copyRecord(long bytePosition, int[] record, boolean write)
+        throws IOException {
+        int spot = (int)(bytePosition % blockSize);
+        int[] ints = write ? record : new int[recordSize / 4];
+        Buffer buffer = pin(bytePosition / blockSize);
+        try {
+            for (int i = 0; i < ints.length; i++) {
+                if (write) {
+                    buffer.putInt(spot + i * 4, ints[i]);
+                }
+                else {
+                    ints[i] = buffer.getInt(spot + i * 4);
+                }
+            }
+            if (write) {
+                buffer.setDirtyBuffer(true);
+            }
+        }
+        finally {
+            unpin(buffer);
+        }
+        return ints;
+    }
+
 
     /**
-     * Constructor for a buffer pool
+     * Does a list of swaps in order, as if swapRecords were called for each
+     * pair. A block stays pinned from one swap to the next as long as the
+     * swaps keep landing in it, so swaps that walk through the file in step,
+     * like those of a partition, pin each block about once instead of twice
+     * per swap.
      * 
-     * @param numbBuffers
-     *            - number of buffers from command line
-     * @param randFile
-     *            - file with input
+     * @param firsts
+     *            - index of one record of each swap
+     * @param seconds
+     *            - index of the other record of each swap
+     * @param count
+     *            - number of swaps to do, from index 0
      * @throws IOException
-     *             - Throws exception on bad files
+     *             - throws an exception on a bad file
      */
-    public BufferPool(int numbBuffers, RandomAccessFile randFile)
+    public void swapRecords(long[] firsts, long[] seconds, int count)
         throws IOException {
-        file = randFile;
-        maxBuffers = numbBuffers;
-        bufferPool = new Buffer[numbBuffers];
-//        for (int i = 0; i < numbBuffers; i++) {
-//            bufferPool[i] = new Buffer();
-//        }
-        fileLength = (int)randFile.length();
-        linkedList = new LinkedList<Buffer>(); 
-        numRecords = fileLength / 4;
-        numBuffers = 0;
-
+        Buffer one = null;
+        Buffer two = null;
+        try {
+            for (int n = 0; n < count; n++) {
+                long firstPosition = firsts[n] * recordSize;
+                long secondPosition = seconds[n] * recordSize;
+                long firstBlock = firstPosition / blockSize;
+                long secondBlock = secondPosition / blockSize;
+                if (one != null && one.getBlockID() != firstBlock) {
+                    unpin(one);
+                    one = null;
+                }
+                if (two != null && two.getBlockID() != secondBlock) {
+                    unpin(two);
+                    two = null;
+                }
+                if (one == null) {
+                    // holding a second pin while waiting for one could wait
+                    // forever, so let it go if the first block has to wait
+                    one = pin(firstBlock, false, two == null);
+                    if (one == null) {
+                        unpin(two);
+                        two = null;
+                        one = pin(firstBlock);
+                    }
+                }
+                int firstSpot = (int)(firstPosition % blockSize);
+                int secondSpot = (int)(secondPosition % blockSize);
+                if (firstBlock == secondBlock) {
+                    exchange(one, firstSpot, one, secondSpot);
+                    continue;
+                }
+                if (two == null) {
+                    two = pin(secondBlock, false, false);
+                }
+                if (two == null) {
+                    unpin(one);
+                    one = null;
+                    swapRecords(firsts[n], seconds[n]);
+                    continue;
+                }
+                exchange(one, firstSpot, two, secondSpot);
+            }
+        }
+        finally {
+            if (one != null) {
+                unpin(one);
+            }
+            if (two != null) {
+                unpin(two);
+            }
+        }
     }
 
 
-    
-//        
-    
+    /**
+     * Exchanges two records between pinned buffers and marks both dirty
+     * 
+     * @param one
+     *            - buffer holding the first record
+     * @param firstSpot
+     *            - position of the first record in its block
+     * @param two
+     *            - buffer holding the second record, may be the same buffer
+     * @param secondSpot
+     *            - position of the second record in its block
+     */
+    private void exchange(
+        Buffer one,
+        int firstSpot,
+        Buffer two,
+        int secondSpot) {
+        for (int i = 0; i < recordSize; i += 4) {
+            int word = one.getInt(firstSpot + i);
+            one.putInt(firstSpot + i, two.getInt(secondSpot + i));
+            two.putInt(secondSpot + i, word);
+        }
+        one.setDirtyBuffer(true);
+        two.setDirtyBuffer(true);
+    }
 
 
     /**
-     * Gets the bytes from this buffer pool based on the position of the byte it
-     * is looking to access
+     * Gets the buffer holding a block and pins it so it stays in the pool
+     * until unpin is called. The block is read from the file if it is not
+     * already in the pool, and either way ends up most recently used in its
+     * stripe.
      * 
-     * @param pos
-     *            - integer representing the position of the byte we wish to
-     *            access in the input file
-     * @param size
-     *            - size of the record in bytes
-     * @return returns a byte array of size 4, 2-key 2-value
+     * @param blockID
+     *            - id of the block we want
+     * @return pinned buffer holding the block
      * @throws IOException
+     *             - throws an exception on a bad file
      */
-    public byte[] getBytes(int pos, int size) throws IOException {
-        // should only pass key value positions
-        int blockID = (pos * RECORD_SIZE) / 4096;
-        int keySpot = (pos * RECORD_SIZE) % 4096;
-        Buffer buffer = null;
-        for(int i = 0; i < linkedList.getCount(); i++) {
-            //if present
-            if(linkedList.searchByIndex(i).item.getBlockID() == blockID) {
-                buffer = linkedList.searchByIndex(i).item;
-                linkedList.removeSpecific(i);
-                linkedList.insertHead(buffer);
-                return buffer.bufferGetBytes(keySpot, size);
-            }
-        }
-        //if full & not in linked list
-        if(maxBuffers == linkedList.getCount()) {
-            if(linkedList.searchByIndex(maxBuffers -1).item.isDirty()) {
-                write();
-                buffer = read(blockID);
-            } else {
-                buffer = read(blockID);
-            }
-            linkedList.removeSpecific(maxBuffers - 1);
-            linkedList.insertHead(buffer);
-            return buffer.bufferGetBytes(keySpot,size);
-        }
-        //if not full and not in linked list
-        buffer = read(blockID);
-        linkedList.insertHead(buffer);
-        
-        
-        
-        return buffer.bufferGetBytes(keySpot, size);
+    private Buffer pin(long blockID) throws IOException {
+        return pin(blockID, false, true);
     }
 
 
     /**
-     * Adds a buffer to the buffer pool from the input file
+     * Pins a block like pin(blockID), but a caller about to overwrite all
+     * of it can skip reading it from the file. The skip only applies to
+     * stores that copy blocks, since a mapped block has to be mapped
+     * whatever its contents.
      * 
      * @param blockID
-     *            - id of the block
-     * @return returns the buffer it added
-     * 
+     *            - id of the block we want
+     * @param overwrite
+     *            - true if every byte of the block will be written before
+     *            it is read
+     * @param wait
+     *            - false to give up instead of waiting when the block is
+     *            missing and every buffer of its stripe is pinned
+     * @return pinned buffer holding the block, null if it would have had to
+     *         wait
      * @throws IOException
-     *             - throws a input output exception
+     *             - throws an exception on a bad file
      */
-    public Buffer read(int blockID) throws IOException {
+    private Buffer pin(long blockID, boolean overwrite, boolean wait)
+        throws IOException {
+        AccessTrace recorder = trace;
+        if (recorder != null) {
+            recorder.record(blockID);
+        }
+        Stripe stripe = stripes[(int)(blockID % stripes.length)];
+        while (true) {
+            Buffer buffer;
+            stripe.lock.lock();
+            try {
+                buffer = stripe.table.get(blockID);
+                if (buffer != null && buffer.getBlockID() != blockID) {
+                    // the block was thrown out and is still being written
+                    // back from a buffer that now belongs to another block,
+                    // so wait for the write before reading it again
+                    while (stripe.table.get(blockID) == buffer) {
+                        stripe.loaded.awaitUninterruptibly();
+                    }
+                    continue;
+                }
+                if (buffer != null) {
+                    buffer.pins.incrementAndGet();
+                    buffer.referenced = true;
+                    stripe.policy.access(buffer.slot);
+                    while (buffer.loading) {
+                        stripe.loaded.awaitUninterruptibly();
+                    }
+                    if (buffer.getBlockID() == blockID) {
+                        stripe.hits++;
+                        if (buffer.readAhead != 0) {
+                            readAheadUsed(buffer);
+                        }
+                        return buffer;
+                    }
+                    // the read failed and the buffer was given up, try again
+                    buffer.pins.decrementAndGet();
+                    continue;
+                }
+                buffer = stripe.claimBuffer(blockID, wait);
+                if (buffer == null) {
+                    if (!wait) {
+                        return null;
+                    }
+                    // waited for a buffer, the block may be in by now
+                    continue;
+                }
+                buffer.setID(blockID);
+                buffer.loading = true;
+                buffer.pins.incrementAndGet();
+                stripe.table.put(blockID, buffer);
+                stripe.policy.insert(buffer.slot, blockID);
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+            stats.miss();
+            if (buffer.pendingWrite >= 0) {
+                writeBack(stripe, buffer);
+            }
+            if (overwrite && store.copiesBlocks()) {
+                finishLoad(stripe, buffer, true);
+                return buffer;
+            }
+            Prefetcher reader = prefetcher;
+            if (reader != null) {
+                reader.missed(blockID);
+            }
+            load(stripe, buffer);
+            return buffer;
+        }
+    }
 
-        Buffer buffer = new Buffer();
-        buffer.setID(blockID);
-        int bytePosition = blockID * 4096;
-        file.seek(bytePosition);
-        file.read(buffer.getBlockBytes());
-        return buffer;
+
+    /**
+     * Clears the read-ahead mark of a prefetched buffer on its first use and
+     * moves that scan's window on by a block
+     * 
+     * @param buffer
+     *            - pinned buffer that was read ahead
+     */
+    private void readAheadUsed(Buffer buffer) {
+        int direction = buffer.readAhead;
+        buffer.readAhead = 0;
+        Prefetcher reader = prefetcher;
+        if (reader != null) {
+            reader.used(buffer.getBlockID(), direction);
+        }
     }
 
 
     /**
-     * Removes a buffer and writes back to the random access file
+     * Loads a block ahead of time if it is in the file and not already in
+     * the pool. The buffer is marked with the scan direction so its first
+     * use keeps the read-ahead going. Errors are dropped, a later demand
+     * read of the block reports them.
      * 
-     * @throws IOException
-     *             throws an exception on a bad file
+     * @param blockID
+     *            - block to load
+     * @param direction
+     *            - 1 for an ascending scan, -1 for a descending one
      */
-    public void write() throws IOException {
-        Buffer leastUsed = getLeastRecentlyUsed();
-        byte[] bytes = leastUsed.getBlockBytes();
-        int id = leastUsed.getBlockID();
-        leastUsed.setDirtyBuffer(false);
-        int bytePosition = id * 4096;
-        file.seek(bytePosition);
-        file.write(bytes);
+    private void prefetchBlock(long blockID, int direction) {
+        if (blockID < 0 || blockID * blockSize >= fileLength) {
+            return;
+        }
+        Stripe stripe = stripes[(int)(blockID % stripes.length)];
+        Buffer buffer;
+        stripe.lock.lock();
+        try {
+            if (stripe.table.get(blockID) != null) {
+                return;
+            }
+            buffer = stripe.claimBuffer(blockID, false);
+            if (buffer == null) {
+                // every buffer is in use, so reading ahead would only get
+                // in the way
+                return;
+            }
+            buffer.setID(blockID);
+            buffer.loading = true;
+            buffer.readAhead = direction;
+            buffer.pins.incrementAndGet();
+            stripe.table.put(blockID, buffer);
+            stripe.policy.insert(buffer.slot, blockID);
+        }
+        catch (IOException e) {
+            return;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+        try {
+            if (buffer.pendingWrite >= 0) {
+                writeBack(stripe, buffer);
+            }
+            load(stripe, buffer);
+        }
+        catch (IOException e) {
+            // the failed write or read already gave the buffer up
+            return;
+        }
+        stats.prefetched();
+        unpin(buffer);
     }
 
 
     /**
-     * Flushes the buffer pool by writing all dirty buffers back to the file
+     * Lets go of a buffer from pin
+     * 
+     * @param buffer
+     *            - pinned buffer
+     */
+    private void unpin(Buffer buffer) {
+        buffer.pins.decrementAndGet();
+    }
+
+
+    /**
+     * Reads a block into a buffer that is already in its stripe's table and
+     * marked as loading. No lock is held during the read; threads that want
+     * the same block wait for it on the stripe.
      * 
+     * @param stripe
+     *            - stripe the buffer belongs to
+     * @param buffer
+     *            - pinned buffer to read into
      * @throws IOException
+     *             - throws an exception on a bad file
      */
-    public void flush() throws IOException {
-        
-        for(int i =0; i< linkedList.getCount()-1; i++) {
-            if(linkedList.searchByIndex(i).item.isDirty()) {                
-                Buffer currentHead = linkedList.getHead().item;
-                byte[] bytes = currentHead.getBlockBytes();
-                int id = currentHead.getBlockID();
-                currentHead.setDirtyBuffer(false);
-                int bytePosition = id * 4096;
-                file.seek(bytePosition);
-                file.write(bytes);
-                linkedList.removeHead();
+    private void load(Stripe stripe, Buffer buffer) throws IOException {
+        boolean loaded = false;
+        try {
+            long start = System.nanoTime();
+            buffer.loaded(store.load(buffer.getBlockID(), buffer.io));
+            if (store.copiesBlocks()) {
+                stats.read(validBytes(buffer.getBlockID()), System.nanoTime()
+                    - start);
             }
+            loaded = true;
+        }
+        finally {
+            finishLoad(stripe, buffer, loaded);
         }
     }
 
 
     /**
-     * Alerts you to the status of the buffer pool
+     * Ends the loading of a buffer and wakes the threads waiting for it. A
+     * block the buffer was thrown out with leaves the table now that it is
+     * written, and a buffer whose read failed is taken back out of the
+     * stripe.
      * 
-     * @param bp
-     *            buffer pool array to be checked
-     * @return a boolean value of true if full, false otherwise
+     * @param stripe
+     *            - stripe the buffer belongs to
+     * @param buffer
+     *            - buffer that was loading
+     * @param loaded
+     *            - true if the buffer now holds its block
      */
-    public boolean isFull(Buffer[] bp) {
-        return numBuffers == bp.length;
+    private void finishLoad(Stripe stripe, Buffer buffer, boolean loaded) {
+        stripe.lock.lock();
+        try {
+            if (buffer.pendingWrite >= 0) {
+                stripe.table.remove(buffer.pendingWrite);
+                buffer.pendingWrite = -1;
+            }
+            if (!loaded) {
+                buffer.readAhead = 0;
+                stripe.table.remove(buffer.getBlockID());
+                stripe.policy.remove(buffer.slot);
+                buffer.setID(-1);
+                buffer.pins.decrementAndGet();
+                stripe.spare = buffer;
+            }
+            buffer.loading = false;
+            stripe.loaded.signalAll();
+        }
+        finally {
+            stripe.lock.unlock();
+        }
     }
 
 
     /**
-     * Gets the file length of input
+     * Writes the block a claimed buffer was thrown out with back to the
+     * block store before the new block is read into it. No lock is held
+     * during the write. The old block stays in the stripe's table until
+     * finishLoad takes it out, so a thread wanting it waits on the buffer
+     * instead of reading what is in the file too soon. If the write fails
+     * the buffer is given up like one whose read failed.
      * 
-     * @return file length of input in bytes
+     * @param stripe
+     *            - stripe the buffer belongs to
+     * @param buffer
+     *            - pinned buffer, marked as loading, still holding the
+     *            changes of the block in pendingWrite
+     * @throws IOException
+     *             - throws an exception on a bad file
      */
-    public int getFileLength() {
-        return fileLength;
+    private void writeBack(Stripe stripe, Buffer buffer) throws IOException {
+        long blockID = buffer.pendingWrite;
+        boolean written = false;
+        try {
+            buffer.setDirtyBuffer(false);
+            long start = System.nanoTime();
+            store.store(blockID, buffer.io);
+            if (store.copiesBlocks()) {
+                stats.write(validBytes(blockID), System.nanoTime() - start);
+            }
+            written = true;
+        }
+        finally {
+            if (!written) {
+                finishLoad(stripe, buffer, false);
+            }
+        }
     }
 
 
     /**
-     * Gets the number of records
+     * Gets how many bytes of a block are inside the file
      * 
-     * @return number of records in the whole file
+     * @param blockID
+     *            - id of the block
+     * @return block size, or less for the last block of the file
      */
-    public int getNumRecords() {
-        return numRecords;
+    private int validBytes(long blockID) {
+        return (int)Math.min(blockSize, fileLength - blockID * blockSize);
     }
 
 
-//    /**
-//     * Shifts all the values in this array up one towards the highest index,
-//     * leaves position [0] to be filled with a new value.
-//     * 
-//     * @param bp
-//     *            array of buffers being changeds
-//     */
-//    public void shiftUp(Buffer[] bp) {
-//        // for the length of the buffer pool overwrite the contents
-//        for (int i = bp.length - 1; i > 0; i--) {
-//            bp[i] = bp[i - 1];
-//        }
-//    }
-
     /**
-     * Swap method switches two records
-     * @param array1 - record 1
-     * @param position1 - position of record 1
-     * @param array2 - record 2
-     * @param position2 - position of record 2
-     * @param pivotSwap - lets us know if this is a pivot we're swapping
-     * @throws IOException if file not found
+     * One lock stripe of the pool: a share of the buffers along with the
+     * table that finds them and the policy that picks which to throw out
      */
-    public void swap(
-        byte[] array1, int position1, byte[] array2, int position2,
-boolean pivotSwap) throws IOException {
-        
-        int block1id = (position1 * RECORD_SIZE) / 4096;
-        int positionInBlock = (position1 * RECORD_SIZE) % 4096;
-
-        int block2id = (position2 * RECORD_SIZE) / 4096;
-        int positionInBlock2 = (position2 * RECORD_SIZE) % 4096;
-
-       boolean found = false;
-        for(int i = 0; i < linkedList.getCount(); i++) {
-            //if present
-            if(linkedList.searchByIndex(i).item.getBlockID() == block1id) {
-                
-                System.arraycopy(array2, 0, linkedList.searchByIndex(i).item.getBlockBytes(), positionInBlock, RECORD_SIZE);
-                linkedList.searchByIndex(i).item.setDirtyBuffer(true);
-                found = true;
-                break;
-            }
-        }
-        if(!found) {
-            loadBlock(block1id);
-            System.arraycopy(array2, 0, linkedList.searchByIndex(0).item.getBlockBytes(), positionInBlock, RECORD_SIZE);
-            linkedList.searchByIndex(0).item.setDirtyBuffer(true);
-        }
-        found = false;
-        for(int i = 0; i < linkedList.getCount(); i++) {
-            //if present
-            if(linkedList.searchByIndex(i).item.getBlockID() == block2id) {
-                System.arraycopy(array1, 0, linkedList.searchByIndex(i).item.getBlockBytes(), positionInBlock2, RECORD_SIZE);
-                linkedList.searchByIndex(i).item.setDirtyBuffer(true);
-                found = true;
-                break;
-            }
-        }
-        if(!found) {
-            loadBlock(block2id);
-            System.arraycopy(array1, 0, linkedList.searchByIndex(0).item.getBlockBytes(), positionInBlock2, RECORD_SIZE);
-            linkedList.searchByIndex(0).item.setDirtyBuffer(true);
+    private class Stripe {
+
+        private ReentrantLock lock;
+        private Condition loaded;
+        private BlockTable<Buffer> table;
+        private ReplacementPolicy policy;
+        private IntPredicate evictable;
+        private IntPredicate clean;
+        private Buffer[] frames;
+        private int hand;
+        private Buffer spare;
+        private int allocated;
+        private long hits;
+
+        /**
+         * Creates an empty stripe
+         * 
+         * @param maxBuffers
+         *            - most buffers this stripe may hold
+         * @param expected
+         *            - blocks we expect to hold, used to size the table
+         * @param policyName
+         *            - replacement policy to use
+         */
+        Stripe(int maxBuffers, int expected, String policyName) {
+            lock = new ReentrantLock();
+            loaded = lock.newCondition();
+            table = new BlockTable<Buffer>(expected);
+            policy = ReplacementPolicy.create(policyName, maxBuffers);
+            frames = new Buffer[maxBuffers];
+            evictable = slot -> frames[slot].pins.get() == 0;
+            clean = slot -> frames[slot].pins.get() == 0
+                && !frames[slot].isDirty();
+            allocated = 0;
         }
-        
-        
-     
-    }
-    
-    private void loadBlock(int targetID) throws IOException {
-        Buffer buffer = new Buffer();
-        if(maxBuffers == linkedList.getCount()) {
-            if(linkedList.searchByIndex(maxBuffers -1).item.isDirty()) {
-                write();
-                buffer = read(targetID);
-            } else {
-                buffer = read(targetID);
+
+
+        /**
+         * Finds a buffer to hold a new block: a buffer left over from a
+         * failed read, a new buffer while the stripe is below capacity, or
+         * else the buffer the policy picks among those nobody has pinned.
+         * While write-behind runs, the policy prefers a clean buffer to a
+         * dirty one. A dirty buffer keeps its old block in the table and
+         * has it set in pendingWrite, and whoever claimed it writes it back
+         * with writeBack once the lock is let go. Must be called with the
+         * lock held.
+         * 
+         * If every buffer is pinned this waits a moment and returns null.
+         * The wait lets go of the lock, so another thread may have brought
+         * the block in meanwhile and the caller has to look it up again
+         * before claiming once more.
+         * 
+         * @param blockID
+         *            - block that needs the room
+         * @param wait
+         *            - false to give up at once when every buffer is pinned
+         * @return buffer that is unknown to the policy and in no table
+         *         unless it has a block to write back, null if every buffer
+         *         is pinned
+         * @throws IOException
+         *             - throws an exception on a bad file
+         */
+        Buffer claimBuffer(long blockID, boolean wait) throws IOException {
+            if (spare != null) {
+                Buffer buffer = spare;
+                spare = null;
+                return buffer;
+            }
+            if (allocated < frames.length) {
+                return frames[allocated++];
+            }
+            int slot = policy.victim(blockID, writer != null ? clean
+                : evictable, evictable);
+            if (slot >= 0) {
+                Buffer buffer = frames[slot];
+                boolean dirty = buffer.isDirty();
+                stats.evicted(dirty);
+                if (dirty) {
+                    buffer.pendingWrite = buffer.getBlockID();
+                }
+                else {
+                    table.remove(buffer.getBlockID());
+                }
+                return buffer;
+            }
+            if (wait) {
+                // every buffer is pinned by another thread; wait for one
+                try {
+                    loaded.await(100, TimeUnit.MICROSECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                        "Interrupted waiting for a buffer");
+                }
+            }
+            return null;
+        }
+
+
+        /**
+         * Pins up to max dirty buffers nobody else has pinned, going round
+         * the stripe from where the last call stopped. Like CLOCK, a buffer
+         * used since the last time round is skipped once, so blocks still
+         * being changed are not written over and over. Must be called with
+         * the lock held.
+         * 
+         * @param batch
+         *            - array the pinned buffers are put into
+         * @param max
+         *            - most buffers to pin
+         * @return number of buffers pinned
+         */
+        int pinDirty(Buffer[] batch, int max) {
+            int found = 0;
+            for (int i = 0; i < allocated && found < max; i++) {
+                hand = (hand + 1) % allocated;
+                Buffer buffer = frames[hand];
+                if (buffer.referenced) {
+                    buffer.referenced = false;
+                }
+                else if (buffer.isDirty() && !buffer.loading && buffer.pins
+                    .get() == 0) {
+                    buffer.pins.incrementAndGet();
+                    batch[found++] = buffer;
+                }
             }
-            linkedList.removeSpecific(maxBuffers - 1);
-            linkedList.insertHead(buffer);
+            return found;
         }
-        //if not full and not in linked list
-        buffer = read(targetID);
-        linkedList.insertHead(buffer);
+
     }
 
 
     /**
-     * Private method that gives back the least recently used block in the
-     * buffer pool array
-     * 
-     * @return least recently used buffer in array
+     * Background writer that cleans buffers ahead of eviction. It sleeps
+     * until the pool passes the high-water mark, then pins batches of dirty
+     * buffers under each stripe's lock and writes them in block order with
+     * no lock held.
+     */
+    private class WriteBehind implements Runnable {
+
+        /**
+         * Most buffers written per stripe visit
+         */
+        private static final int BATCH = 16;
+
+        /**
+         * Longest the writer sleeps before checking the dirty count again
+         */
+        private static final long IDLE_NANOS = 10_000_000L;
+
+        private Thread thread;
+        private int highWater;
+        private int lowWater;
+        private volatile boolean running;
+        private volatile IOException failure;
+
+        /**
+         * Creates the writer and its daemon thread, not yet started
+         * 
+         * @param highWaterMark
+         *            - dirty buffers allowed before writing starts
+         */
+        WriteBehind(int highWaterMark) {
+            highWater = highWaterMark;
+            lowWater = highWaterMark / 2;
+            running = true;
+            thread = new Thread(this, "BufferPool write-behind");
+            thread.setDaemon(true);
+        }
+
+
+        /**
+         * Writes batches whenever the pool is too dirty, until stopped or a
+         * write fails
+         */
+        @Override
+        public void run() {
+            Buffer[] batch = new Buffer[BATCH];
+            int next = 0;
+            while (running) {
+                if (dirtyCount.get() <= highWater) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                    continue;
+                }
+                writing.lock();
+                try {
+                    for (int i = 0; i < stripes.length && running
+                        && dirtyCount.get() > lowWater; i++) {
+                        next = (next + 1) % stripes.length;
+                        writeBatch(stripes[next], batch);
+                    }
+                }
+                catch (IOException e) {
+                    failure = e;
+                    running = false;
+                }
+                finally {
+                    writing.unlock();
+                }
+            }
+        }
+
+
+        /**
+         * Writes one batch of a stripe's dirty buffers
+         * 
+         * @param stripe
+         *            - stripe to clean
+         * @param batch
+         *            - scratch array for the pinned buffers
+         * @throws IOException
+         *             - throws an exception on a bad file
+         */
+        private void writeBatch(Stripe stripe, Buffer[] batch)
+            throws IOException {
+            int count;
+            stripe.lock.lock();
+            try {
+                count = stripe.pinDirty(batch, batch.length);
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+            writeSorted(batch, count);
+        }
+
+
+        /**
+         * Tells the writer the pool just got dirtier
+         * 
+         * @param dirty
+         *            - dirty buffers now
+         */
+        void dirtied(int dirty) {
+            if (dirty == highWater + 1) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+
+        /**
+         * Stops the writer and waits for its last batch to finish
+         */
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+
+        /**
+         * Throws the error that stopped the writer, if any
+         * 
+         * @throws IOException
+         *             - the write that failed in the background
+         */
+        void checkFailure() throws IOException {
+            IOException e = failure;
+            if (e != null) {
+                throw new IOException("Write-behind failed", e);
+            }
+        }
+
+    }
+
+    /**
+     * Spots sequential scans from the order of misses and reads ahead of
+     * them on a couple of background threads. Requests beyond what the
+     * threads can keep up with are dropped rather than queued without end.
      */
-    private Buffer getLeastRecentlyUsed() {
-        lru = linkedList.searchByIndex(maxBuffers-1).item;
-        return lru;
+    private class Prefetcher {
+
+        /**
+         * Recent misses remembered when looking for a neighbour, enough for
+         * several interleaved scans such as the two cursors of a partition
+         */
+        private static final int HISTORY = 8;
+
+        /**
+         * Background threads doing the reads
+         */
+        private static final int THREADS = 2;
+
+        private ThreadPoolExecutor executor;
+        private int depth;
+        private long[] recent;
+        private int next;
+
+        /**
+         * Creates a prefetcher and its idle threads
+         * 
+         * @param readAhead
+         *            - blocks to keep read ahead of a scan
+         */
+        Prefetcher(int readAhead) {
+            depth = readAhead;
+            recent = new long[HISTORY];
+            Arrays.fill(recent, Long.MIN_VALUE);
+            executor = new ThreadPoolExecutor(THREADS, THREADS, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                    THREADS * readAhead * 2), task -> {
+                        Thread thread = new Thread(task,
+                            "BufferPool prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+        }
+
+
+        /**
+         * Notes a demand miss, and starts reading ahead if it continues a
+         * recent one in either direction
+         * 
+         * @param blockID
+         *            - block that missed
+         */
+        void missed(long blockID) {
+            int direction = 0;
+            synchronized (this) {
+                for (long miss : recent) {
+                    if (miss == blockID - 1) {
+                        direction = 1;
+                    }
+                    else if (miss == blockID + 1) {
+                        direction = -1;
+                    }
+                }
+                recent[next] = blockID;
+                next = (next + 1) % HISTORY;
+            }
+            for (int i = 1; direction != 0 && i <= depth; i++) {
+                request(blockID + (long)direction * i, direction);
+            }
+        }
+
+
+        /**
+         * Moves a scan's window on after it used a prefetched block
+         * 
+         * @param blockID
+         *            - prefetched block that was used
+         * @param direction
+         *            - direction the block was read ahead in
+         */
+        void used(long blockID, int direction) {
+            request(blockID + (long)direction * depth, direction);
+        }
+
+
+        /**
+         * Queues one block to be read
+         * 
+         * @param blockID
+         *            - block to read
+         * @param direction
+         *            - scan direction to mark it with
+         */
+        private void request(long blockID, int direction) {
+            executor.execute(() -> prefetchBlock(blockID, direction));
+        }
+
+
+        /**
+         * Drops queued reads and waits for the ones under way. The threads
+         * are not interrupted, since that would close the file channel
+         * under every other thread too.
+         */
+        void stop() {
+            executor.getQueue().clear();
+            executor.shutdown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
     }
 
+
     /**
      * This class represents a Buffer. A buffer can either be dirty or clean and
      * each buffer has an id.
      */
     private class Buffer {
 
-        private byte[] buffer;
-        private int id;
-        private boolean dirty;
+        private ByteBuffer data;
+        private ByteBuffer io;
+        private volatile long id;
+        private AtomicBoolean dirty;
+        private volatile boolean loading;
+        private volatile boolean referenced;
+        private volatile int readAhead;
+        private AtomicInteger pins;
+        private int slot;
+        private long pendingWrite;
 
         /**
-         * Creates a new buffer of size 4096 bytes
+         * Creates a buffer over memory set aside for it. Records are read and
+         * written through one view of the memory while the block store moves
+         * the other, so a write-back never disturbs a record access.
+         * 
+         * @param frame
+         *            - one block of memory, null for stores that hand the
+         *            buffer its memory when the block is loaded
          */
-        public Buffer() {
-            buffer = new byte[4096];
+        public Buffer(ByteBuffer frame) {
+            data = frame;
+            if (frame != null) {
+                io = frame.duplicate();
+            }
             id = -1;
-            dirty = false;
+            pendingWrite = -1;
+            dirty = new AtomicBoolean();
+            pins = new AtomicInteger();
         }
 
 
@@ -314,18 +1908,54 @@ boolean pivotSwap) throws IOException {
          * Gets 4 specific bytes from this buffer
          * 
          * @param spot
-         *            - start position of the 4 targeted bytes within the 4096
-         *            byte array
+         *            - start position of the 4 targeted bytes within the block
          * @return 4 bytes starting at index spot
          */
         public byte[] bufferGetBytes(int spot, int size) {
             byte[] temp = new byte[size];
-            System.arraycopy(buffer, spot, temp, 0, size);
+            data.get(spot, temp);
             return temp;
 
         }
 
 
+        /**
+         * Reads a big endian short from this buffer
+         * 
+         * @param spot
+         *            - position of the short within the block
+         * @return the short at that position
+         */
+        public short getShort(int spot) {
+            return data.getShort(spot);
+        }
+
+
+        /**
+         * Reads a big endian int from this buffer
+         * 
+         * @param spot
+         *            - position of the int within the block
+         * @return the int at that position
+         */
+        public int getInt(int spot) {
+            return data.getInt(spot);
+        }
+
+
+        /**
+         * Writes a big endian int into this buffer
+         * 
+         * @param spot
+         *            - position of the int within the block
+         * @param value
+         *            - int to write
+         */
+        public void putInt(int spot, int value) {
+            data.putInt(spot, value);
+        }
+
+
         /**
          * Sets the bytes
          * 
@@ -338,18 +1968,30 @@ boolean pivotSwap) throws IOException {
          */
         public void setBytes(byte[] newBytes, int position, int size) {
 
-            System.arraycopy(newBytes, 0, buffer, position, size);
+            data.put(position, newBytes, 0, size);
         }
 
 
         /**
-         * Sets the dirty boolean value
+         * Sets the dirty boolean value, keeping the pool's dirty count in
+         * step
          * 
          * @param isDirty
          *            - value to change the boolean to
          */
         public void setDirtyBuffer(boolean isDirty) {
-            dirty = isDirty;
+            if (isDirty) {
+                if (!dirty.get() && dirty.compareAndSet(false, true)) {
+                    int count = dirtyCount.incrementAndGet();
+                    WriteBehind current = writer;
+                    if (current != null) {
+                        current.dirtied(count);
+                    }
+                }
+            }
+            else if (dirty.get() && dirty.compareAndSet(true, false)) {
+                dirtyCount.decrementAndGet();
+            }
         }
 
 
@@ -359,7 +2001,7 @@ boolean pivotSwap) throws IOException {
          * @return - dirty value
          */
         public boolean isDirty() {
-            return dirty;
+            return dirty.get();
         }
 
 
@@ -368,18 +2010,24 @@ boolean pivotSwap) throws IOException {
          * 
          * @return buffer ID
          */
-        public int getBlockID() {
+        public long getBlockID() {
             return id;
         }
 
 
         /**
-         * Gives back this buffer in byte array form
+         * Takes the buffer load gave back. A store that does not copy blocks
+         * hands over its own view of the block, which is then used for
+         * records and write-back alike.
          * 
-         * @return this buffer block in its byte array form
+         * @param loaded
+         *            - buffer returned by the block store
          */
-        public byte[] getBlockBytes() {
-            return buffer;
+        public void loaded(ByteBuffer loaded) {
+            if (loaded != io) {
+                data = loaded;
+                io = loaded;
+            }
         }
 
 
@@ -388,7 +2036,7 @@ boolean pivotSwap) throws IOException {
          * 
          * @param newID
          */
-        public void setID(int newID) {
+        public void setID(long newID) {
             id = newID;
         }
 
@@ -0,0 +1,682 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import student.TestCase;
+
+/**
+ * Tests for the buffer pool on its own, without going through main
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class BufferPoolTest extends TestCase {
+
+    /**
+     * Sparse file bigger than any int offset can reach
+     */
+    private static final String BIG_FILE = "bigSparse.bin";
+
+    /**
+     * Three gigabytes, so blocks and records sit on both sides of 2 GiB
+     */
+    private static final long BIG_LENGTH = 3L << 30;
+
+    /**
+     * First record index whose byte offset does not fit in an int
+     */
+    private static final long PAST_2G = (1L << 31) / 4;
+
+    private RandomAccessFile file;
+
+    /**
+     * Creates a sparse multi gigabyte file. Only the blocks we touch ever
+     * take up disk space.
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void setUp() throws IOException {
+        file = new RandomAccessFile(BIG_FILE, "rw");
+        file.setLength(BIG_LENGTH);
+    }
+
+
+    /**
+     * Closes and deletes the sparse file
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void tearDown() throws IOException {
+        file.close();
+        new File(BIG_FILE).delete();
+    }
+
+
+    /**
+     * Records past 2 GiB and at the very end of the file can be written,
+     * flushed and read back from the right byte offsets
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testRecordsPastTwoGigabytes() throws IOException {
+        BufferPool bp = new BufferPool(2, file);
+        assertEquals(BIG_LENGTH, bp.getFileLength());
+        assertEquals(BIG_LENGTH / 4, bp.getNumRecords());
+
+        long last = bp.getNumRecords() - 1;
+        bp.setRecord(PAST_2G, 0x12345678);
+        bp.setRecord(last, 0x7FFF0001);
+        bp.setRecord(5, 0x00010002);
+        bp.swapRecords(PAST_2G, last);
+        bp.flush();
+
+        file.seek(PAST_2G * 4);
+        assertEquals(0x7FFF0001, file.readInt());
+        file.seek(last * 4);
+        assertEquals(0x12345678, file.readInt());
+        assertEquals((short)0x1234, bp.getKey(last));
+        assertEquals(0x00010002, bp.getRecord(5));
+    }
+
+
+    /**
+     * The pool counts hits, misses, reads, writes and dirty evictions
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testStats() throws IOException {
+        BufferPool bp = new BufferPool(2, file);
+        long perBlock = BufferPool.DEFAULT_BLOCK_SIZE / 4;
+        bp.setRecord(0, 1);
+        bp.setRecord(1, 2);
+        bp.getRecord(perBlock);
+        bp.getRecord(2 * perBlock);
+        bp.flush();
+        PoolStats stats = bp.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(3, stats.getReads());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(1, stats.getDirtyEvictions());
+        assertEquals(1, stats.getWrites());
+        assertEquals(3L * BufferPool.DEFAULT_BLOCK_SIZE,
+            stats.getBytesRead());
+        long reads = 0;
+        for (long count : stats.getReadLatencyHistogram()) {
+            reads += count;
+        }
+        assertEquals(3, reads);
+        assertTrue(stats.register());
+        assertFalse(new PoolStats().register());
+        stats.unregister();
+    }
+
+
+    /**
+     * Several threads read and write their own records through one striped
+     * pool that is much smaller than the data they touch
+     *
+     * @throws Exception
+     *             - if a thread fails
+     */
+    public void testConcurrentStripes() throws Exception {
+        final BufferPool bp = new BufferPool(8, 4, new FileBlockStore(file,
+            BufferPool.DEFAULT_BLOCK_SIZE));
+        assertEquals(4, bp.getStripeCount());
+        final long perThread = 20000;
+        Thread[] threads = new Thread[4];
+        final Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads.length; t++) {
+            final long start = PAST_2G + t * perThread;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (long i = start; i < start + perThread; i++) {
+                            bp.setRecord(i, (int)i);
+                        }
+                        for (long i = start; i < start + perThread - 1; i++) {
+                            bp.swapRecords(i, i + 1);
+                        }
+                    }
+                    catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        bp.flush();
+        for (int t = 0; t < threads.length; t++) {
+            long start = PAST_2G + t * perThread;
+            // each record moved down one place and the first went to the end
+            file.seek(start * 4);
+            assertEquals((int)(start + 1), file.readInt());
+            file.seek((start + perThread - 1) * 4);
+            assertEquals((int)start, file.readInt());
+        }
+    }
+
+
+    /**
+     * Sorts a range that straddles the 2 GiB boundary with both the file and
+     * the memory mapped store
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testSortsRangePastTwoGigabytes() throws IOException {
+        checkSortsRange(new BufferPool(3, file));
+        checkSortsRange(new BufferPool(3, new MappedBlockStore(file,
+            BufferPool.DEFAULT_BLOCK_SIZE)));
+    }
+
+
+    /**
+     * Every replacement policy sorts correctly, and a trace of the sort
+     * replays through every policy with the same number of block uses the
+     * pool saw
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testReplacementPolicies() throws IOException {
+        String traceFile = "policyTrace.bin";
+        for (String policy : ReplacementPolicy.NAMES) {
+            BufferPool bp = new BufferPool(4, 1, policy, new FileBlockStore(
+                file, BufferPool.DEFAULT_BLOCK_SIZE));
+            AccessTrace trace = new AccessTrace(traceFile);
+            bp.setTrace(trace);
+            checkSortsRange(bp);
+            bp.setTrace(null);
+            trace.close();
+        }
+        long[] lru = PolicySimulator.replay(traceFile, "lru", 4);
+        assertTrue(lru[1] > 0);
+        for (String policy : ReplacementPolicy.NAMES) {
+            long[] result = PolicySimulator.replay(traceFile, policy, 4);
+            assertEquals(lru[0] + lru[1], result[0] + result[1]);
+            // a cache as big as the range never misses twice on one block
+            result = PolicySimulator.replay(traceFile, policy, 64);
+            assertTrue(result[1] <= 8001 * 4 / 4096 + 2);
+        }
+        new File(traceFile).delete();
+    }
+
+
+    /**
+     * Every policy takes a preferred slot over one it would rather throw
+     * out, but only looks a few slots for one, and ARC moves its target
+     * once for a miss that finds no preferred slot, and not at all for one
+     * that finds no slot
+     */
+    public void testPolicyPrefersSlots() {
+        for (String name : ReplacementPolicy.NAMES) {
+            ReplacementPolicy policy = ReplacementPolicy.create(name, 2);
+            policy.insert(0, 1);
+            policy.insert(1, 2);
+            assertEquals(1, policy.victim(3, slot -> slot == 1,
+                slot -> true));
+            // a preferred slot far from the eviction end is not searched for
+            policy = ReplacementPolicy.create(name, 32);
+            for (int slot = 0; slot < 32; slot++) {
+                policy.insert(slot, slot + 1);
+            }
+            assertEquals(name, 0, policy.victim(99, slot -> slot == 31,
+                slot -> true));
+        }
+        ArcPolicy arc = new ArcPolicy(4);
+        for (int slot = 0; slot < 4; slot++) {
+            arc.insert(slot, slot + 1);
+        }
+        arc.access(0);
+        arc.access(1);
+        assertEquals(2, arc.victim(5, slot -> true));
+        arc.insert(2, 5);
+        // block 3 is now remembered in B1, so missing it again grows T1
+        assertEquals(-1, arc.victim(3, slot -> false, slot -> false));
+        assertEquals(0, arc.getTarget());
+        int slot = arc.victim(3, s -> false, s -> true);
+        assertTrue(slot >= 0);
+        arc.insert(slot, 3);
+        assertEquals(1, arc.getTarget());
+    }
+
+
+    /**
+     * The write-behind thread brings the dirty count back under its
+     * high-water mark on its own, and close leaves every change on disk and
+     * can be called again
+     *
+     * @throws Exception
+     *             - if the writer never catches up
+     */
+    public void testWriteBehind() throws Exception {
+        BufferPool bp = new BufferPool(16, new FileBlockStore(file,
+            BufferPool.DEFAULT_BLOCK_SIZE));
+        bp.startWriteBehind(4);
+        long perBlock = BufferPool.DEFAULT_BLOCK_SIZE / 4;
+        for (long block = 0; block < 12; block++) {
+            bp.setRecord(PAST_2G + block * perBlock, (int)block + 1);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getDirtyCount() > 4
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(bp.getDirtyCount() <= 4);
+        for (long block = 12; block < 40; block++) {
+            bp.setRecord(PAST_2G + block * perBlock, (int)block + 1);
+        }
+        bp.close();
+        assertEquals(0, bp.getDirtyCount());
+        bp.close();
+        assertEquals(0, bp.getDirtyCount());
+        for (long block = 0; block < 40; block++) {
+            file.seek((PAST_2G + block * perBlock) * 4);
+            assertEquals((int)block + 1, file.readInt());
+        }
+    }
+
+
+    /**
+     * Scans up and then down through many more blocks than the pool holds
+     * with prefetching on, and every record still reads back as written
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testPrefetchScans() throws IOException {
+        long count = 200 * BufferPool.DEFAULT_BLOCK_SIZE / 4;
+        BufferPool writer = new BufferPool(16, file);
+        for (long i = 0; i < count; i++) {
+            writer.setRecord(PAST_2G + i, (int)i);
+        }
+        writer.flush();
+
+        BufferPool bp = new BufferPool(16, file);
+        bp.startPrefetch(4);
+        for (long i = 0; i < count; i++) {
+            assertEquals((int)i, bp.getRecord(PAST_2G + i));
+        }
+        for (long i = count - 1; i >= 0; i--) {
+            assertEquals((int)i, bp.getRecord(PAST_2G + i));
+            bp.setRecord(PAST_2G + i, (int)-i);
+        }
+        bp.close();
+        file.seek((PAST_2G + count - 1) * 4);
+        assertEquals((int)-(count - 1), file.readInt());
+    }
+
+
+    /**
+     * Inputs that make a plain quicksort quadratic or blow its stack: all
+     * keys equal, already sorted, reversed, organ pipe and a handful of
+     * distinct keys. Each must come out sorted with the same records.
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testIntrosortAdversarialInputs() throws IOException {
+        BufferPool bp = new BufferPool(8, file);
+        int count = 100000;
+        String[] shapes = {"equal", "sorted", "reversed", "organ", "few"};
+        Random random = new Random(3114);
+        for (String shape : shapes) {
+            long start = PAST_2G - count / 2;
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                int key;
+                if (shape.equals("equal")) {
+                    key = 7;
+                }
+                else if (shape.equals("sorted")) {
+                    key = i / 2 - 25000;
+                }
+                else if (shape.equals("reversed")) {
+                    key = 25000 - i / 2;
+                }
+                else if (shape.equals("organ")) {
+                    key = Math.min(i, count - i) / 2 - 12000;
+                }
+                else {
+                    key = random.nextInt(26) + 0x41;
+                }
+                int record = (key << 16) | (i & 0xFFFF);
+                bp.setRecord(start + i, record);
+                sum += record;
+            }
+            new QuicksortSpecialized().quicksort(bp, start, start + count
+                - 1);
+            for (int i = 0; i < count; i++) {
+                int record = bp.getRecord(start + i);
+                sum -= record;
+                if (i > 0) {
+                    assertTrue(shape, bp.getKey(start + i - 1) <= (short)(
+                        record >> 16));
+                }
+            }
+            assertEquals(shape, 0, sum);
+        }
+        QuicksortSpecialized sorter = new QuicksortSpecialized();
+        for (int i = 0; i < 1000; i++) {
+            bp.setRecord(i, random.nextInt());
+        }
+        sorter.heapsort(bp, 0, 999);
+        for (int i = 1; i < 1000; i++) {
+            assertTrue(bp.getKey(i - 1) <= bp.getKey(i));
+        }
+        assertEquals(32, QuicksortSpecialized.depthLimit(100000));
+    }
+
+
+    /**
+     * A three-way partition leaves every record with the pivot's key
+     * between the bounds it reports, smaller keys before and bigger keys
+     * after. The two-way partition still sorts.
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testThreeWayPartition() throws IOException {
+        BufferPool bp = new BufferPool(8, file);
+        Random random = new Random(3114);
+        QuicksortSpecialized sorter = new QuicksortSpecialized();
+        long[] bounds = new long[2];
+        for (int keys : new int[] {1, 2, 5, 1000}) {
+            for (int i = 0; i < 5000; i++) {
+                bp.setRecord(i, (random.nextInt(keys) << 16) | i);
+            }
+            sorter.partitionThreeWay(bp, 0, 4999, bounds);
+            assertTrue(bounds[0] <= bounds[1]);
+            short pivot = bp.getKey(bounds[0]);
+            for (int i = 0; i < 5000; i++) {
+                if (i < bounds[0]) {
+                    assertTrue(bp.getKey(i) < pivot);
+                }
+                else if (i <= bounds[1]) {
+                    assertEquals(pivot, bp.getKey(i));
+                }
+                else {
+                    assertTrue(bp.getKey(i) > pivot);
+                }
+            }
+        }
+        for (int i = 0; i < 5000; i++) {
+            bp.setRecord(i, (random.nextInt(5) << 16) | i);
+        }
+        new QuicksortSpecialized(false).quicksort(bp, 0, 4999);
+        for (int i = 1; i < 5000; i++) {
+            assertTrue(bp.getKey(i - 1) <= bp.getKey(i));
+        }
+    }
+
+
+    /**
+     * A flush hands neighbouring dirty blocks to the store as one run, in
+     * block order across stripes, and every record reaches the file
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testFlushCoalescesRuns() throws IOException {
+        final List<Long> runs = new ArrayList<Long>();
+        BlockStore store = new FileBlockStore(file, 4096) {
+            @Override
+            public void storeRun(long first, ByteBuffer[] data, int count)
+                throws IOException {
+                runs.add(first);
+                runs.add((long)count);
+                super.storeRun(first, data, count);
+            }
+        };
+        BufferPool bp = new BufferPool(32, 4, store);
+        long start = PAST_2G - 5 * 1024;
+        for (int i = 0; i < 10 * 1024; i++) {
+            bp.setRecord(start + i, i);
+        }
+        bp.setRecord(0, -1);
+        bp.flush();
+        assertEquals(4, runs.size());
+        assertEquals(0, (long)runs.get(0));
+        assertEquals(1, (long)runs.get(1));
+        assertEquals(start / 1024, (long)runs.get(2));
+        assertEquals(10, (long)runs.get(3));
+        for (int i = 0; i < 10 * 1024; i += 1023) {
+            file.seek((start + i) * 4);
+            assertEquals(i, file.readInt());
+        }
+    }
+
+
+    /**
+     * Single and batched swaps match the same swaps done on an array, both
+     * in a pool roomy enough to pin two blocks and in a one buffer pool
+     * where a swap across blocks has to move the records one at a time
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testSwapBatches() throws IOException {
+        Random random = new Random(3114);
+        for (int buffers : new int[] {1, 3}) {
+            BufferPool bp = new BufferPool(buffers, file);
+            int[] model = new int[5000];
+            for (int i = 0; i < model.length; i++) {
+                model[i] = random.nextInt();
+                bp.setRecord(i, model[i]);
+            }
+            long[] firsts = new long[200];
+            long[] seconds = new long[200];
+            for (int round = 0; round < 20; round++) {
+                for (int n = 0; n < firsts.length; n++) {
+                    firsts[n] = random.nextInt(model.length);
+                    seconds[n] = random.nextInt(model.length);
+                }
+                if (round % 2 == 0) {
+                    bp.swapRecords(firsts, seconds, firsts.length);
+                }
+                else {
+                    for (int n = 0; n < firsts.length; n++) {
+                        bp.swapRecords(firsts[n], seconds[n]);
+                    }
+                }
+                for (int n = 0; n < firsts.length; n++) {
+                    int a = (int)firsts[n];
+                    int b = (int)seconds[n];
+                    int record = model[a];
+                    model[a] = model[b];
+                    model[b] = record;
+                }
+            }
+            for (int i = 0; i < model.length; i++) {
+                assertEquals(model[i], bp.getRecord(i));
+            }
+            bp.close();
+            for (int i = 0; i < model.length; i++) {
+                file.seek(i * 4L);
+                assertEquals(model[i], file.readInt());
+            }
+        }
+    }
+
+
+    /**
+     * With an in-memory batch, ranges that fit are sorted as arrays while
+     * bigger ones are still partitioned through the pool first
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testInMemoryBatches() throws IOException {
+        BufferPool bp = new BufferPool(4, file);
+        Random random = new Random(3114);
+        long start = PAST_2G - 20000;
+        long sum = 0;
+        for (long i = start; i < start + 50000; i++) {
+            int record = random.nextInt();
+            bp.setRecord(i, record);
+            sum += record;
+        }
+        new QuicksortSpecialized(true, 3000).quicksort(bp, start, start
+            + 49999);
+        for (long i = start; i < start + 50000; i++) {
+            sum -= bp.getRecord(i);
+            if (i > start) {
+                assertTrue(bp.getKey(i - 1) <= bp.getKey(i));
+            }
+        }
+        assertEquals(0, sum);
+        assertEquals(1000, SortOptions.parse(new String[] {"a.txt", "4",
+            "--batch-memory", "4000"}).getBatchRecords());
+    }
+
+
+    /**
+     * Wide records keyed by a little endian unsigned int in their middle are
+     * sorted whole by that key with either partition, runs of them read
+     * back as written, the int accessors turn them down, and so are layouts
+     * that do not fit
+     *
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void testRecordSchemas() throws IOException {
+        RecordSchema schema = new RecordSchema(16, 8, 4, true,
+            ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(3114);
+        int count = 6000;
+        long start = (1L << 31) / 16 - 2000;
+        for (boolean threeWay : new boolean[] {true, false}) {
+            byte[] data = new byte[count * 16];
+            random.nextBytes(data);
+            ByteBuffer records = ByteBuffer.wrap(data).order(
+                ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < count; i += 2) {
+                // repeat a few keys, some with the top bit set
+                records.putInt(i * 16 + 8, random.nextInt(5) << 30);
+            }
+            long before = recordHashes(data);
+            file.seek(start * 16);
+            file.write(data);
+            BufferPool bp = new BufferPool(3, 1, BufferPool.DEFAULT_POLICY,
+                schema, new FileBlockStore(file, BufferPool.MIN_BLOCK_SIZE));
+            assertEquals(BIG_LENGTH / 16, bp.getNumRecords());
+            new QuicksortSpecialized(threeWay).quicksort(bp, start, start
+                + count - 1);
+            bp.close();
+            file.seek(start * 16);
+            file.readFully(data);
+            assertEquals(before, recordHashes(data));
+            for (int i = 1; i < count; i++) {
+                assertTrue(Integer.compareUnsigned(records.getInt(i * 16
+                    - 8), records.getInt(i * 16 + 8)) <= 0);
+            }
+        }
+        BufferPool bp = new BufferPool(3, 1, BufferPool.DEFAULT_POLICY,
+            schema, new FileBlockStore(file, BufferPool.MIN_BLOCK_SIZE));
+        int[] written = new int[4 * 300];
+        for (int i = 0; i < written.length; i++) {
+            written[i] = random.nextInt();
+        }
+        // a run of whole records that straddles a block boundary
+        bp.writeRecords(start + 200, written, 300);
+        int[] read = new int[written.length];
+        bp.readRecords(start + 200, read, 300);
+        assertTrue(Arrays.equals(written, read));
+        assertEquals(written[4], ByteBuffer.wrap(bp.getBytes(start + 201,
+            16)).getInt());
+        try {
+            bp.getRecord(start);
+            fail("read a 16 byte record as an int");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("16 byte"));
+        }
+        try {
+            bp.getKey(start);
+            fail("read a short key from another layout");
+        }
+        catch (IllegalStateException e) {
+            assertNotNull(e.getMessage());
+        }
+        bp.close();
+        assertTrue(RecordSchema.DEFAULT.isDefault());
+        assertFalse(schema.sortsAsInt());
+        for (int[] bad : new int[][] {{12, 0, 2}, {2, 0, 2}, {8, 6, 4},
+            {8, 0, 3}}) {
+            try {
+                new RecordSchema(bad[0], bad[1], bad[2], false,
+                    ByteOrder.BIG_ENDIAN);
+                fail("accepted " + Arrays.toString(bad));
+            }
+            catch (IllegalArgumentException e) {
+                assertNotNull(e.getMessage());
+            }
+        }
+        try {
+            SortOptions.parse(new String[] {"a.txt", "4", "--algorithm",
+                "merge", "--record-size", "8"});
+            fail("merge accepted a wide record");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("quicksort"));
+        }
+    }
+
+
+    /**
+     * Adds up a hash of every 16 byte record, so two arrays holding the
+     * same records in any order add up the same
+     *
+     * @param data
+     *            - records back to back
+     * @return sum of the record hashes
+     */
+    private static long recordHashes(byte[] data) {
+        long sum = 0;
+        for (int i = 0; i < data.length; i += 16) {
+            sum += Arrays.hashCode(Arrays.copyOfRange(data, i, i + 16));
+        }
+        return sum;
+    }
+
+
+    /**
+     * Fills a range around 2 GiB with random records, sorts it and checks
+     * the keys come out in order
+     *
+     * @param bp
+     *            - pool over the sparse file
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void checkSortsRange(BufferPool bp) throws IOException {
+        Random random = new Random(3114);
+        long start = PAST_2G - 3000;
+        long end = PAST_2G + 5000;
+        for (long i = start; i <= end; i++) {
+            bp.setRecord(i, random.nextInt());
+        }
+        new QuicksortSpecialized().quicksort(bp, start, end);
+        bp.flush();
+        for (long i = start; i < end; i++) {
+            assertTrue(bp.getKey(i) <= bp.getKey(i + 1));
+        }
+    }
+
+}
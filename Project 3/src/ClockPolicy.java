@@ -0,0 +1,88 @@
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK: an approximation of LRU that only sets a bit on each use. The hand
+ * sweeps the slots, clearing bits, and throws out the first block whose bit
+ * is already clear. A hit costs one store instead of a list move.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private boolean[] referenced;
+    private boolean[] present;
+    private int hand;
+
+    /**
+     * Creates the policy
+     *
+     * @param capacity
+     *            - number of slots
+     */
+    public ClockPolicy(int capacity) {
+        referenced = new boolean[capacity];
+        present = new boolean[capacity];
+        hand = 0;
+    }
+
+
+    @Override
+    public void insert(int slot, long blockID) {
+        present[slot] = true;
+        referenced[slot] = true;
+    }
+
+
+    @Override
+    public void access(int slot) {
+        referenced[slot] = true;
+    }
+
+
+    @Override
+    public int victim(
+        long incoming,
+        IntPredicate preferred,
+        IntPredicate evictable) {
+        // two full sweeps clear every bit, so a third finds a victim if any.
+        // Bits are only cleared on evictable slots, so finding none changes
+        // nothing. Once a victim is found the hand only goes a few slots
+        // further looking for a preferred one.
+        int fallback = -1;
+        int looked = 0;
+        for (int step = 0; step < 3 * present.length; step++) {
+            int slot = hand;
+            hand = (hand + 1) % present.length;
+            if (!present[slot] || !evictable.test(slot)) {
+                continue;
+            }
+            if (referenced[slot]) {
+                referenced[slot] = false;
+            }
+            else if (preferred.test(slot)) {
+                present[slot] = false;
+                return slot;
+            }
+            else if (fallback < 0) {
+                fallback = slot;
+            }
+            if (fallback >= 0 && ++looked >= PREFERRED_WINDOW) {
+                break;
+            }
+        }
+        if (fallback >= 0) {
+            present[fallback] = false;
+            hand = (fallback + 1) % present.length;
+        }
+        return fallback;
+    }
+
+
+    @Override
+    public void remove(int slot) {
+        present[slot] = false;
+        referenced[slot] = false;
+    }
+
+}
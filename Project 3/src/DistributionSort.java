@@ -0,0 +1,217 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Distribution sort for the 16-bit keys. A key has only 65,536 possible
+ * values, so records are placed by counting instead of comparing: one pass
+ * reads the file and counts the keys, then two stable passes scatter the
+ * records by the low and then the high byte of their key, first into a
+ * scratch file and then back. Every pass reads its input in order, and the
+ * records for each of the 256 buckets are gathered a block at a time before
+ * they are written, so the writes go out in whole blocks too. The sort takes
+ * time linear in the number of records whatever the keys are.
+ *
+ * All reads and writes go through buffer pools, the caller's for the file
+ * being sorted and one of its own for the scratch file. The scratch pool's
+ * buffers come on top of the caller's, so a caller with a memory budget
+ * gives each pool a share of it.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class DistributionSort {
+
+    /**
+     * Bits of the key placed by each scatter pass
+     */
+    public static final int RADIX_BITS = 8;
+
+    /**
+     * Most records gathered for a bucket before they are written
+     */
+    public static final int MAX_STAGED = 1 << 14;
+
+    private static final int BUCKETS = 1 << RADIX_BITS;
+    private static final int LOW_SHIFT = 16;
+    private static final int HIGH_SHIFT = 24;
+
+    /**
+     * Flips the key's sign bit so negative keys bucket before positive ones
+     */
+    private static final int SIGN_FLIP = 0x80000000;
+
+    private int scratchBuffers;
+
+    /**
+     * Creates a distribution sort
+     *
+     * @param numbBuffers
+     *            - number of buffers for the scratch file's pool, besides
+     *            those of the pool being sorted
+     */
+    public DistributionSort(int numbBuffers) {
+        scratchBuffers = numbBuffers;
+    }
+
+
+    /**
+     * Sorts every record the pool holds. A scratch file the size of the
+     * input is made next to it unless all the keys are the same.
+     *
+     * @param bp
+     *            - pool over the file to sort
+     * @param path
+     *            - name of the file, used to place the scratch file
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void sort(BufferPool bp, String path) throws IOException {
+        long numRecords = bp.getNumRecords();
+        long[][] counts = histogram(bp, numRecords);
+        if (distinct(counts[0]) <= 1 && distinct(counts[1]) <= 1) {
+            return;
+        }
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile("scatter", ".tmp", parent);
+        RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+        try {
+            temp.setLength(bp.getFileLength());
+            BufferPool scratch = new BufferPool(scratchBuffers, bp
+                .getBlockSize(), temp);
+            scatter(bp, scratch, numRecords, counts[0], LOW_SHIFT);
+            scatter(scratch, bp, numRecords, counts[1], HIGH_SHIFT);
+            // the scratch file is thrown away, so whatever is still dirty in
+            // its pool is never written back
+        }
+        finally {
+            temp.close();
+            tempFile.delete();
+        }
+    }
+
+
+    /**
+     * Reads every record once and counts the low and the high byte of the
+     * keys
+     *
+     * @param bp
+     *            - pool over the file
+     * @param numRecords
+     *            - records in the file
+     * @return counts of the low byte, then of the high byte
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private static long[][] histogram(BufferPool bp, long numRecords)
+        throws IOException {
+        long[][] counts = new long[2][BUCKETS];
+        int[] chunk = new int[bp.getBlockSize() / 4];
+        for (long i = 0; i < numRecords; i += chunk.length) {
+            int count = (int)Math.min(chunk.length, numRecords - i);
+            bp.readRecords(i, chunk, count);
+            for (int j = 0; j < count; j++) {
+                counts[0][digit(chunk[j], LOW_SHIFT)]++;
+                counts[1][digit(chunk[j], HIGH_SHIFT)]++;
+            }
+        }
+        return counts;
+    }
+
+
+    /**
+     * Copies every record from one pool to another, ordered by one byte of
+     * its key and otherwise in the order they were read. Each bucket's
+     * records are gathered until they reach a block boundary of the target,
+     * so the target's blocks are mostly written whole and never read.
+     *
+     * @param from
+     *            - pool read from start to end
+     * @param to
+     *            - pool the records are placed in
+     * @param numRecords
+     *            - records to copy
+     * @param counts
+     *            - how many records fall in each bucket
+     * @param shift
+     *            - position of the key byte within a record
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private static void scatter(
+        BufferPool from,
+        BufferPool to,
+        long numRecords,
+        long[] counts,
+        int shift)
+        throws IOException {
+        int perBlock = to.getBlockSize() / 4;
+        int stage = Math.min(perBlock, MAX_STAGED);
+        long[] cursor = new long[BUCKETS];
+        int[][] staged = new int[BUCKETS][];
+        int[] fill = new int[BUCKETS];
+        int[] room = new int[BUCKETS];
+        long next = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            cursor[b] = next;
+            next += counts[b];
+            if (counts[b] > 0) {
+                staged[b] = new int[stage];
+                room[b] = stage - (int)(cursor[b] % stage);
+            }
+        }
+        int[] chunk = new int[from.getBlockSize() / 4];
+        for (long i = 0; i < numRecords; i += chunk.length) {
+            int count = (int)Math.min(chunk.length, numRecords - i);
+            from.readRecords(i, chunk, count);
+            for (int j = 0; j < count; j++) {
+                int b = digit(chunk[j], shift);
+                staged[b][fill[b]++] = chunk[j];
+                if (fill[b] == room[b]) {
+                    to.writeRecords(cursor[b], staged[b], fill[b]);
+                    cursor[b] += fill[b];
+                    fill[b] = 0;
+                    room[b] = stage;
+                }
+            }
+        }
+        for (int b = 0; b < BUCKETS; b++) {
+            if (fill[b] > 0) {
+                to.writeRecords(cursor[b], staged[b], fill[b]);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the bucket of a record for one byte of its key
+     *
+     * @param record
+     *            - record packed into an int, key in the high two bytes
+     * @param shift
+     *            - position of the key byte within the record
+     * @return bucket number, in key order
+     */
+    private static int digit(int record, int shift) {
+        return ((record ^ SIGN_FLIP) >>> shift) & (BUCKETS - 1);
+    }
+
+
+    /**
+     * Counts the buckets that hold any records
+     *
+     * @param counts
+     *            - records per bucket
+     * @return buckets in use
+     */
+    private static int distinct(long[] counts) {
+        int used = 0;
+        for (long count : counts) {
+            if (count > 0) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+}
@@ -0,0 +1,615 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * External merge sort. Sorts runs as big as the buffer pool in memory, then
+ * merges up to (buffers - 1) runs at a time with a heap, reading each run and
+ * writing the output one block at a time. Every pass reads and writes the
+ * file sequentially, so a file much larger than the pool costs a handful of
+ * passes instead of the random block traffic quicksort causes.
+ *
+ * The sort can also leave the input alone and stream the sorted records to
+ * any channel, such as a new file or standard output. The runs and all but
+ * the last merge pass then go through scratch files, and the last pass
+ * appends to the output as it goes.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class ExternalMergeSort {
+
+    private static final int RECORD_SIZE = 4;
+
+    /**
+     * Largest int array the JVM will reliably hand out
+     */
+    private static final int MAX_RUN_RECORDS = Integer.MAX_VALUE - 8;
+
+    private int numBuffers;
+    private int blockSize;
+    private PoolStats stats;
+
+    /**
+     * Creates a merge sort that uses the same memory a buffer pool would
+     *
+     * @param numbBuffers
+     *            - number of block sized buffers we may use
+     * @param blockBytes
+     *            - size of each block in bytes
+     */
+    public ExternalMergeSort(int numbBuffers, int blockBytes) {
+        numBuffers = numbBuffers;
+        blockSize = blockBytes;
+        stats = new PoolStats();
+    }
+
+
+    /**
+     * Gets the counters of blocks read and written and of time spent
+     * forming runs and merging
+     *
+     * @return stats of this sort
+     */
+    public PoolStats getStats() {
+        return stats;
+    }
+
+
+    /**
+     * Sorts a whole file in place. A temporary file the size of the input is
+     * made next to it when more than one run is needed.
+     *
+     * @param file
+     *            - file to sort, opened for reading and writing
+     * @param path
+     *            - name of the file, used to place the temporary file
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void sort(RandomAccessFile file, String path) throws IOException {
+        FileChannel input = file.getChannel();
+        long numRecords = input.size() / RECORD_SIZE;
+        int runRecords = runRecords();
+        long numRuns = (numRecords + runRecords - 1) / runRecords;
+        long start = System.nanoTime();
+        if (numRuns <= 1) {
+            formRuns(input, writer(input), numRecords, runRecords);
+            stats.phase("runs", System.nanoTime() - start);
+            return;
+        }
+
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile("merge", ".tmp", parent);
+        RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+        try {
+            FileChannel scratch = temp.getChannel();
+            // form the runs where an even number of passes later puts the
+            // final merge back in the input
+            int fanIn = fanIn();
+            FileChannel source = input;
+            FileChannel target = scratch;
+            if (passes(numRuns, fanIn) % 2 == 1) {
+                source = scratch;
+                target = input;
+            }
+            formRuns(input, writer(source), numRecords, runRecords);
+            stats.phase("runs", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long runLength = runRecords;
+            while (runLength < numRecords) {
+                mergePass(source, writer(target), numRecords, runLength,
+                    fanIn);
+                runLength = Math.min(numRecords, runLength * fanIn);
+                FileChannel swap = source;
+                source = target;
+                target = swap;
+            }
+            stats.phase("merge", System.nanoTime() - start);
+        }
+        finally {
+            temp.close();
+            tempFile.delete();
+        }
+    }
+
+
+    /**
+     * Sorts a whole file without changing it, writing the sorted records to
+     * an output channel from start to end. The output is only ever appended
+     * to, so it may be a pipe. Up to two temporary files the size of the
+     * input are made next to it when more than one run is needed.
+     *
+     * @param file
+     *            - file to sort, may be opened read only
+     * @param path
+     *            - name of the file, used to place the temporary files
+     * @param output
+     *            - where the sorted records go
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void sort(
+        RandomAccessFile file,
+        String path,
+        WritableByteChannel output)
+        throws IOException {
+        FileChannel input = file.getChannel();
+        long numRecords = input.size() / RECORD_SIZE;
+        int runRecords = runRecords();
+        long numRuns = (numRecords + runRecords - 1) / runRecords;
+        RunWriter out = new RunWriter(output, blockSize, stats);
+        long start = System.nanoTime();
+        if (numRuns <= 1) {
+            formRuns(input, out, numRecords, runRecords);
+            stats.phase("runs", System.nanoTime() - start);
+            return;
+        }
+
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        File firstFile = File.createTempFile("merge", ".tmp", parent);
+        File secondFile = File.createTempFile("merge", ".tmp", parent);
+        RandomAccessFile first = new RandomAccessFile(firstFile, "rw");
+        RandomAccessFile second = new RandomAccessFile(secondFile, "rw");
+        try {
+            FileChannel source = first.getChannel();
+            FileChannel target = second.getChannel();
+            formRuns(input, writer(source), numRecords, runRecords);
+            stats.phase("runs", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            int fanIn = fanIn();
+            long runLength = runRecords;
+            while (runLength * fanIn < numRecords) {
+                mergePass(source, writer(target), numRecords, runLength,
+                    fanIn);
+                runLength *= fanIn;
+                FileChannel swap = source;
+                source = target;
+                target = swap;
+            }
+            mergePass(source, out, numRecords, runLength, fanIn);
+            stats.phase("merge", System.nanoTime() - start);
+        }
+        finally {
+            first.close();
+            second.close();
+            firstFile.delete();
+            secondFile.delete();
+        }
+    }
+
+
+    /**
+     * Makes a writer for runs that go back into a file
+     *
+     * @param target
+     *            - file the runs are written to
+     * @return writer placing each run where it starts in the file
+     */
+    private RunWriter writer(FileChannel target) {
+        return new RunWriter(target, blockSize, stats);
+    }
+
+
+    /**
+     * Gets how many merge passes a number of runs needs
+     *
+     * @param numRuns
+     *            - runs left after run formation
+     * @param fanIn
+     *            - runs merged at once
+     * @return number of passes
+     */
+    public static int passes(long numRuns, int fanIn) {
+        int passes = 0;
+        while (numRuns > 1) {
+            numRuns = (numRuns + fanIn - 1) / fanIn;
+            passes++;
+        }
+        return passes;
+    }
+
+
+    /**
+     * Gets how many records one in memory run holds
+     *
+     * @return records per run
+     */
+    private int runRecords() {
+        long records = (long)numBuffers * blockSize / RECORD_SIZE;
+        return (int)Math.max(blockSize / RECORD_SIZE, Math.min(records,
+            MAX_RUN_RECORDS));
+    }
+
+
+    /**
+     * Gets how many runs are merged at once: one buffer per run plus one for
+     * the output
+     *
+     * @return runs per merge
+     */
+    private int fanIn() {
+        return Math.max(2, numBuffers - 1);
+    }
+
+
+    /**
+     * Reads the input one run at a time, sorts each run in memory and writes
+     * it to the same place in the target
+     *
+     * @param from
+     *            - unsorted input
+     * @param to
+     *            - where the sorted runs go, may write over the input itself
+     * @param numRecords
+     *            - records in the input
+     * @param runRecords
+     *            - records per run
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void formRuns(
+        FileChannel from,
+        RunWriter to,
+        long numRecords,
+        int runRecords)
+        throws IOException {
+        int[] run = new int[(int)Math.min(runRecords, numRecords)];
+        ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+        IntBuffer blockInts = block.asIntBuffer();
+        for (long start = 0; start < numRecords; start += runRecords) {
+            int count = (int)Math.min(runRecords, numRecords - start);
+            long position = start * RECORD_SIZE;
+            for (int done = 0; done < count;) {
+                int chunk = Math.min(blockSize / RECORD_SIZE, count - done);
+                block.clear().limit(chunk * RECORD_SIZE);
+                long begin = System.nanoTime();
+                FileBlockStore.readFully(from, block, position
+                    + (long)done * RECORD_SIZE);
+                stats.read(chunk * RECORD_SIZE, System.nanoTime() - begin);
+                blockInts.clear();
+                blockInts.get(run, done, chunk);
+                done += chunk;
+            }
+            Arrays.sort(run, 0, count);
+            to.open(start);
+            to.write(run, count);
+            to.finish();
+        }
+    }
+
+
+    /**
+     * Merges every group of fanIn consecutive runs of the source into one
+     * run of the target
+     *
+     * @param source
+     *            - file holding sorted runs
+     * @param writer
+     *            - where the merged runs are written
+     * @param numRecords
+     *            - records in the file
+     * @param runLength
+     *            - records per run in the source, the last run may be short
+     * @param fanIn
+     *            - runs merged at once
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void mergePass(
+        FileChannel source,
+        RunWriter writer,
+        long numRecords,
+        long runLength,
+        int fanIn)
+        throws IOException {
+        RunReader[] readers = new RunReader[fanIn];
+        for (int i = 0; i < fanIn; i++) {
+            readers[i] = new RunReader(source, blockSize, stats);
+        }
+        int[] heap = new int[fanIn];
+        long groupLength = runLength * fanIn;
+        for (long start = 0; start < numRecords; start += groupLength) {
+            int size = 0;
+            for (int i = 0; i < fanIn; i++) {
+                long runStart = start + i * runLength;
+                if (runStart >= numRecords) {
+                    break;
+                }
+                readers[i].open(runStart, Math.min(numRecords, runStart
+                    + runLength));
+                if (readers[i].hasCurrent()) {
+                    heap[size++] = i;
+                }
+            }
+            writer.open(start);
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(heap, size, i, readers);
+            }
+            while (size > 0) {
+                RunReader smallest = readers[heap[0]];
+                writer.write(smallest.current());
+                if (!smallest.advance()) {
+                    heap[0] = heap[--size];
+                }
+                siftDown(heap, size, 0, readers);
+            }
+            writer.finish();
+        }
+    }
+
+
+    /**
+     * Restores the heap order below a slot. The heap holds reader numbers
+     * ordered by each reader's current record.
+     *
+     * @param heap
+     *            - reader numbers
+     * @param size
+     *            - readers in the heap
+     * @param slot
+     *            - slot that may be out of order
+     * @param readers
+     *            - all readers
+     */
+    private static void siftDown(
+        int[] heap,
+        int size,
+        int slot,
+        RunReader[] readers) {
+        int item = heap[slot];
+        int key = readers[item].current();
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && readers[heap[child + 1]]
+                .current() < readers[heap[child]].current()) {
+                child++;
+            }
+            if (readers[heap[child]].current() >= key) {
+                break;
+            }
+            heap[slot] = heap[child];
+            slot = child;
+        }
+        heap[slot] = item;
+    }
+
+
+    /**
+     * Reads one sorted run a block at a time
+     */
+    private static class RunReader {
+
+        private FileChannel channel;
+        private ByteBuffer block;
+        private IntBuffer ints;
+        private PoolStats stats;
+        private long next;
+        private long end;
+        private int current;
+        private boolean hasCurrent;
+
+        /**
+         * Creates a reader with its own block buffer
+         *
+         * @param source
+         *            - file holding the runs
+         * @param blockBytes
+         *            - size of the block buffer
+         * @param counters
+         *            - stats to count reads in
+         */
+        RunReader(FileChannel source, int blockBytes, PoolStats counters) {
+            channel = source;
+            stats = counters;
+            block = ByteBuffer.allocateDirect(blockBytes);
+            ints = block.asIntBuffer();
+            ints.limit(0);
+        }
+
+
+        /**
+         * Points the reader at a new run and reads its first record
+         *
+         * @param from
+         *            - index of the run's first record
+         * @param to
+         *            - index just past the run's last record
+         * @throws IOException
+         *             - throws an exception on a bad file
+         */
+        void open(long from, long to) throws IOException {
+            next = from;
+            end = to;
+            ints.limit(0);
+            advance();
+        }
+
+
+        /**
+         * Moves to the next record of the run
+         *
+         * @return true if there was another record
+         * @throws IOException
+         *             - throws an exception on a bad file
+         */
+        boolean advance() throws IOException {
+            if (!ints.hasRemaining()) {
+                if (next >= end) {
+                    hasCurrent = false;
+                    return false;
+                }
+                int count = (int)Math.min(block.capacity() / RECORD_SIZE, end
+                    - next);
+                block.clear().limit(count * RECORD_SIZE);
+                long begin = System.nanoTime();
+                FileBlockStore.readFully(channel, block, next * RECORD_SIZE);
+                stats.read(count * RECORD_SIZE, System.nanoTime() - begin);
+                ints.clear().limit(count);
+                next += count;
+            }
+            current = ints.get();
+            hasCurrent = true;
+            return true;
+        }
+
+
+        /**
+         * Tells whether the reader still has a record
+         *
+         * @return true until the run is used up
+         */
+        boolean hasCurrent() {
+            return hasCurrent;
+        }
+
+
+        /**
+         * Gets the record the reader is on
+         *
+         * @return record packed into an int, key in the high two bytes
+         */
+        int current() {
+            return current;
+        }
+
+    }
+
+
+    /**
+     * Writes a run a block at a time. A writer over a file puts each run
+     * where it starts in the file; a writer over any other channel appends,
+     * so its runs must be opened in order.
+     */
+    private static class RunWriter {
+
+        private FileChannel channel;
+        private WritableByteChannel stream;
+        private ByteBuffer block;
+        private IntBuffer ints;
+        private PoolStats stats;
+        private long position;
+
+        /**
+         * Creates a writer with its own block buffer
+         *
+         * @param target
+         *            - file the run goes to
+         * @param blockBytes
+         *            - size of the block buffer
+         * @param counters
+         *            - stats to count writes in
+         */
+        RunWriter(FileChannel target, int blockBytes, PoolStats counters) {
+            this((WritableByteChannel)target, blockBytes, counters);
+            channel = target;
+        }
+
+
+        /**
+         * Creates a writer that appends to a channel
+         *
+         * @param target
+         *            - channel the runs go to, one after another
+         * @param blockBytes
+         *            - size of the block buffer
+         * @param counters
+         *            - stats to count writes in
+         */
+        RunWriter(
+            WritableByteChannel target,
+            int blockBytes,
+            PoolStats counters) {
+            stream = target;
+            stats = counters;
+            block = ByteBuffer.allocateDirect(blockBytes);
+            ints = block.asIntBuffer();
+        }
+
+
+        /**
+         * Starts a new run
+         *
+         * @param start
+         *            - index of the run's first record
+         */
+        void open(long start) {
+            position = start * RECORD_SIZE;
+            ints.clear();
+        }
+
+
+        /**
+         * Adds records from an array to the run
+         *
+         * @param records
+         *            - records packed into ints
+         * @param count
+         *            - number of records, from index 0
+         * @throws IOException
+         *             - throws an exception on a bad file
+         */
+        void write(int[] records, int count) throws IOException {
+            for (int done = 0; done < count;) {
+                if (!ints.hasRemaining()) {
+                    finish();
+                }
+                int chunk = Math.min(ints.remaining(), count - done);
+                ints.put(records, done, chunk);
+                done += chunk;
+            }
+        }
+
+
+        /**
+         * Adds a record to the run
+         *
+         * @param record
+         *            - record packed into an int
+         * @throws IOException
+         *             - throws an exception on a bad file
+         */
+        void write(int record) throws IOException {
+            if (!ints.hasRemaining()) {
+                finish();
+            }
+            ints.put(record);
+        }
+
+
+        /**
+         * Writes out whatever is buffered
+         *
+         * @throws IOException
+         *             - throws an exception on a bad file
+         */
+        void finish() throws IOException {
+            int count = ints.position();
+            block.clear().limit(count * RECORD_SIZE);
+            long begin = System.nanoTime();
+            if (channel != null) {
+                FileBlockStore.writeFully(channel, block, position);
+            }
+            else {
+                while (block.hasRemaining()) {
+                    stream.write(block);
+                }
+            }
+            stats.write(count * RECORD_SIZE, System.nanoTime() - begin);
+            position += count * RECORD_SIZE;
+            ints.clear();
+        }
+
+    }
+
+}
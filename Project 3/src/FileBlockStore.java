@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Block store that copies blocks in and out of a file. Every read and write
+ * names its own file position, so several threads can move blocks at once
+ * without sharing a seek position. A run of neighbouring blocks is written
+ * with one gathering write.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class FileBlockStore implements BlockStore {
+
+    private FileChannel channel;
+    private long fileLength;
+    private int blockSize;
+
+    /**
+     * Creates a store over an open file
+     *
+     * @param randFile
+     *            - file with input
+     * @param blockBytes
+     *            - size of each block in bytes
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public FileBlockStore(RandomAccessFile randFile, int blockBytes)
+        throws IOException {
+        channel = randFile.getChannel();
+        fileLength = randFile.length();
+        blockSize = blockBytes;
+    }
+
+
+    @Override
+    public long length() {
+        return fileLength;
+    }
+
+
+    @Override
+    public int blockSize() {
+        return blockSize;
+    }
+
+
+    @Override
+    public ByteBuffer load(long blockID, ByteBuffer frame) throws IOException {
+        frame.clear().limit(validBytes(blockID));
+        readFully(channel, frame, blockID * blockSize);
+        return frame;
+    }
+
+
+    @Override
+    public void store(long blockID, ByteBuffer data) throws IOException {
+        data.clear().limit(validBytes(blockID));
+        writeFully(channel, data, blockID * blockSize);
+    }
+
+
+    @Override
+    public void storeRun(long firstBlockID, ByteBuffer[] data, int count)
+        throws IOException {
+        if (count == 1) {
+            store(firstBlockID, data[0]);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            data[i].clear().limit(validBytes(firstBlockID + i));
+        }
+        // a gathering write goes to the channel's own position, so only one
+        // may be under way at a time
+        synchronized (this) {
+            channel.position(firstBlockID * blockSize);
+            while (data[count - 1].hasRemaining()) {
+                channel.write(data, 0, count);
+            }
+        }
+    }
+
+
+    @Override
+    public boolean copiesBlocks() {
+        return true;
+    }
+
+
+    @Override
+    public void force() throws IOException {
+        // every store already went through write, nothing is held back
+    }
+
+
+    /**
+     * Gets how many bytes of a block are inside the file. Only the last
+     * block can be short, and we never write past the end of the file.
+     *
+     * @param blockID
+     *            - id of the block
+     * @return number of bytes of this block that lie inside the file
+     */
+    private int validBytes(long blockID) {
+        return (int)Math.min(blockSize, fileLength - blockID * blockSize);
+    }
+
+
+    /**
+     * Reads from a channel at a position until the buffer is full
+     *
+     * @param channel
+     *            - channel to read
+     * @param buffer
+     *            - buffer to fill up to its limit
+     * @param position
+     *            - byte offset to start at
+     * @throws IOException
+     *             - throws an exception on a bad file or early end of file
+     */
+    public static void readFully(
+        FileChannel channel,
+        ByteBuffer buffer,
+        long position)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+
+    /**
+     * Writes a whole buffer to a channel at a position
+     *
+     * @param channel
+     *            - channel to write
+     * @param buffer
+     *            - buffer to write up to its limit
+     * @param position
+     *            - byte offset to start at
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public static void writeFully(
+        FileChannel channel,
+        ByteBuffer buffer,
+        long position)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Index sort: sorts the keys in memory and moves every record only twice.
+ * One pass reads the file in order and packs each record's key and index
+ * into a long, key in the high bits, so sorting the longs sorts the records
+ * by key and says where each record belongs. The records are then moved
+ * with two more passes that read and write in order: the first scatters
+ * them into a scratch file by which range of positions they belong in, up
+ * to 256 ranges, and the second reads each range back, puts its records in
+ * place in memory and writes the range to the file. A range never holds
+ * more records than the pool's buffers do, so a big file is split into
+ * more ranges instead. The scratch file's pool comes on top of the
+ * caller's, so a caller with a memory budget gives each pool a share of it.
+ * Quicksort moves a record once per partition level, so this pays off most
+ * when records are much wider than their keys.
+ *
+ * The index takes 8 bytes per record on the heap, and after it is sorted,
+ * 8 bytes per record of positions. Putting a range in order takes two
+ * arrays of one range's records, made once for the whole pass. Keys can be
+ * at most 4 bytes wide so the index still fits beside them.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class IndexSort {
+
+    /**
+     * Most records the index can hold, the largest long array Java allows
+     */
+    public static final int MAX_RECORDS = Integer.MAX_VALUE - 8;
+
+    /**
+     * Most ranges the records are scattered into
+     */
+    public static final int RANGES = 256;
+
+    /**
+     * Most bytes gathered for a range before they are written
+     */
+    public static final int MAX_STAGED = 1 << 16;
+
+    private int threads;
+    private int scratchBuffers;
+
+    /**
+     * Creates an index sort
+     *
+     * @param numThreads
+     *            - threads to sort the index with, 1 to sort it on the
+     *            calling thread
+     * @param numbBuffers
+     *            - number of buffers for the scratch file's pool, besides
+     *            those of the pool being sorted
+     */
+    public IndexSort(int numThreads, int numbBuffers) {
+        threads = numThreads;
+        scratchBuffers = numbBuffers;
+    }
+
+
+    /**
+     * Sorts every record the pool holds. A scratch file the size of the
+     * input is made next to it unless the records are already in order.
+     *
+     * @param bp
+     *            - pool over the file to sort
+     * @param path
+     *            - name of the file, used to place the scratch file
+     * @throws IOException
+     *             - throws an exception on a bad file
+     * @throws IllegalArgumentException
+     *             - if the keys are too wide or there are too many records
+     *             for the index
+     */
+    public void sort(BufferPool bp, String path) throws IOException {
+        RecordSchema schema = bp.getSchema();
+        // one bit to spare keeps unsigned keys from reaching the sign bit
+        int indexBits = Long.SIZE - 1 - Byte.SIZE * schema.keyWidth();
+        long numRecords = bp.getNumRecords();
+        if (indexBits <= 0) {
+            throw new IllegalArgumentException(
+                "Index sort needs keys of at most 4 bytes, got "
+                    + schema.keyWidth());
+        }
+        if (numRecords > MAX_RECORDS || numRecords > 1L << indexBits) {
+            throw new IllegalArgumentException("Too many records to index: "
+                + numRecords);
+        }
+        long[] index = buildIndex(bp, (int)numRecords, indexBits);
+        if (threads > 1) {
+            Arrays.parallelSort(index);
+        }
+        else {
+            Arrays.sort(index);
+        }
+        int[] target = targets(index, (1L << indexBits) - 1);
+        index = null;
+        if (target == null) {
+            return;
+        }
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile("index", ".tmp", parent);
+        RandomAccessFile temp = new RandomAccessFile(tempFile, "rw");
+        try {
+            temp.setLength(bp.getFileLength());
+            BufferPool scratch = new BufferPool(scratchBuffers, 1,
+                BufferPool.DEFAULT_POLICY, schema, new FileBlockStore(temp, bp
+                    .getBlockSize()));
+            int words = schema.size() / 4;
+            int stage = Math.min(bp.getBlockSize(), MAX_STAGED) / 4;
+            int range = rangeSize(target.length, stage / words, (long)bp
+                .getMaxBuffers() * bp.getBlockSize() / schema.size(), words);
+            int[] slots = scatter(bp, scratch, target, range, stage);
+            target = null;
+            gather(scratch, bp, slots, range, words);
+            // the scratch file is thrown away, so whatever is still dirty in
+            // its pool is never written back
+        }
+        finally {
+            temp.close();
+            tempFile.delete();
+        }
+    }
+
+
+    /**
+     * Works out how many positions each range covers: enough that there are
+     * at most RANGES ranges, but no more than the pool's buffers hold. Ranges
+     * start on stage boundaries so the scratch file is written in whole
+     * blocks.
+     *
+     * @param numRecords
+     *            - records in the file
+     * @param perStage
+     *            - records gathered for a range before they are written
+     * @param budget
+     *            - records the pool's buffers hold
+     * @param words
+     *            - ints per record
+     * @return positions per range, a multiple of perStage
+     */
+    private static int rangeSize(
+        int numRecords,
+        int perStage,
+        long budget,
+        int words) {
+        long range = ((long)numRecords + RANGES - 1) / RANGES;
+        range = (range + perStage - 1) / perStage * perStage;
+        // a range is held twice as ints, so it must also fit in an array
+        long most = Math.min(budget, MAX_RECORDS / words);
+        most = Math.max(perStage, most / perStage * perStage);
+        return (int)Math.min(range, most);
+    }
+
+
+    /**
+     * Reads every key in file order and packs it with its record's index
+     *
+     * @param bp
+     *            - pool over the file
+     * @param numRecords
+     *            - records in the file
+     * @param indexBits
+     *            - low bits of each entry that hold the index
+     * @return key and index of every record, in file order
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private static long[] buildIndex(
+        BufferPool bp,
+        int numRecords,
+        int indexBits)
+        throws IOException {
+        long[] index = new long[numRecords];
+        long[] keys = new long[bp.getBlockSize() / bp.getSchema().size()];
+        for (int i = 0; i < numRecords; i += keys.length) {
+            int count = Math.min(keys.length, numRecords - i);
+            bp.readSortKeys(i, keys, count);
+            for (int j = 0; j < count; j++) {
+                index[i + j] = keys[j] << indexBits | (i + j);
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     * Works out where each record goes from the sorted index
+     *
+     * @param index
+     *            - sorted index, the masked bits of entry p say which
+     *            record belongs at position p
+     * @param mask
+     *            - bits of an entry that hold the record index
+     * @return position of every record, null if none of them move
+     */
+    private static int[] targets(long[] index, long mask) {
+        int[] target = new int[index.length];
+        boolean moves = false;
+        for (int p = 0; p < index.length; p++) {
+            int from = (int)(index[p] & mask);
+            target[from] = p;
+            moves |= from != p;
+        }
+        return moves ? target : null;
+    }
+
+
+    /**
+     * Copies every record into the scratch file, grouped by the range of
+     * positions it belongs in and otherwise in file order. Each range's
+     * records are gathered until they reach a stage boundary, so the
+     * scratch file is written in whole blocks. Records of any size are
+     * moved as runs of ints.
+     *
+     * @param from
+     *            - pool over the file, read from start to end
+     * @param to
+     *            - pool over the scratch file
+     * @param target
+     *            - position of every record
+     * @param range
+     *            - positions per range
+     * @param stage
+     *            - ints gathered for a range before they are written
+     * @return for each scratch record, the position it belongs in
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private static int[] scatter(
+        BufferPool from,
+        BufferPool to,
+        int[] target,
+        int range,
+        int stage)
+        throws IOException {
+        int words = from.getSchema().size() / 4;
+        int perStage = stage / words;
+        int ranges = (target.length + range - 1) / range;
+        int[] slots = new int[target.length];
+        int[] cursor = new int[ranges];
+        int[][] staged = new int[ranges][];
+        int[] fill = new int[ranges];
+        for (int r = 0; r < ranges; r++) {
+            cursor[r] = r * range;
+        }
+        int[] chunk = new int[stage];
+        for (int i = 0; i < target.length; i += perStage) {
+            int count = Math.min(perStage, target.length - i);
+            from.readRecords(i, chunk, count);
+            for (int j = 0; j < count; j++) {
+                int r = target[i + j] / range;
+                if (staged[r] == null) {
+                    staged[r] = new int[stage];
+                }
+                slots[cursor[r] + fill[r] / words] = target[i + j];
+                System.arraycopy(chunk, j * words, staged[r], fill[r], words);
+                fill[r] += words;
+                if (fill[r] == stage) {
+                    to.writeRecords(cursor[r], staged[r], perStage);
+                    cursor[r] += perStage;
+                    fill[r] = 0;
+                }
+            }
+        }
+        for (int r = 0; r < ranges; r++) {
+            if (fill[r] > 0) {
+                to.writeRecords(cursor[r], staged[r], fill[r] / words);
+            }
+        }
+        return slots;
+    }
+
+
+    /**
+     * Reads each range back from the scratch file, puts its records in
+     * order in memory and writes the range to the file
+     *
+     * @param from
+     *            - pool over the scratch file
+     * @param to
+     *            - pool over the file
+     * @param slots
+     *            - for each scratch record, the position it belongs in
+     * @param range
+     *            - positions per range
+     * @param words
+     *            - ints per record
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private static void gather(
+        BufferPool from,
+        BufferPool to,
+        int[] slots,
+        int range,
+        int words)
+        throws IOException {
+        int[] in = new int[range * words];
+        int[] out = new int[range * words];
+        for (int start = 0; start < slots.length; start += range) {
+            int count = Math.min(range, slots.length - start);
+            from.readRecords(start, in, count);
+            for (int k = 0; k < count; k++) {
+                System.arraycopy(in, k * words, out, (slots[start + k]
+                    - start) * words, words);
+            }
+            to.writeRecords(start, out, count);
+        }
+    }
+
+}
@@ -1,82 +1,91 @@
+/**
+ * Doubly linked list with a sentinel node at each end, so adding and
+ * removing never has to special-case an empty list or the last node. The
+ * insert methods hand back the node they made, and a caller holding a node
+ * can move it to the front or remove it in O(1). A removed node keeps its
+ * identity and can be put back with moveToFront, so a list kept in
+ * recently used order can replace its tail without allocating. A node that
+ * is off the list has no links, which is how remove tells it apart.
+ *
+ * @param <E>
+ *            - type of the items held
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
 public class LinkedList<E> {
 
-    /* Head is needed to keep track of first node */
+    /* Sentinels: head.next is the first node and tail.prev the last */
     private Node<E> head;
+    private Node<E> tail;
 
     private int count = 0;
 
+    /**
+     * Creates an empty list
+     */
+    public LinkedList() {
+        head = new Node<E>(null);
+        tail = new Node<E>(null);
+        head.next = tail;
+        tail.prev = head;
+    }
+
+
     /**
      * Inserts into the linked list
-     * 
+     *
      * @param value
+     *            - value to be added at the front
+     * @return node holding the value
      */
-    public void insertHead(E value) {
+    public Node<E> insertHead(E value) {
         Node<E> newNode = new Node<E>(value);
-        newNode.next = head;
-        head = newNode;
-        count++;
+        linkAfter(head, newNode);
+        return newNode;
     }
 
 
     /**
      * Inserts at the back of the list
-     * 
+     *
      * @param value
      *            - Buffer to be added
+     * @return node holding the value
      */
-    public void insertBack(E value) {
+    public Node<E> insertBack(E value) {
         Node<E> newNode = new Node<E>(value);
-        newNode.next = null;
-
-        // nothing in the list
-        if (null == head) {
-
-            head = newNode;
-        }
-        else {
-            Node<E> tempNode = head;
-            while (null != tempNode.next) {
-                tempNode = tempNode.next;
-            }
-            tempNode.next = newNode;
-        }
-        count++;
+        linkAfter(tail.prev, newNode);
+        return newNode;
     }
 
 
     /**
      * Inserts a specific value at a certain spot
-     * 
+     *
      * @param value
      *            - value we wish to add
      * @param position
      *            - position we wish to add value
+     * @return node holding the value
      */
-    public void insertAtPosition(E value, int position) {
+    public Node<E> insertAtPosition(E value, int position) {
         if (position < 0 || position > count) {
             throw new IllegalArgumentException("Illegal Index");
         }
-
         Node<E> newNode = new Node<E>(value);
-        if (position == 0) {
-            newNode.next = head;
+        if (position == count) {
+            linkAfter(tail.prev, newNode);
         }
         else {
-            Node<E> tempNode = head;
-            for (int i = 0; i < position - 1; i++) {
-                tempNode = tempNode.next;
-            }
-            Node<E> nodeNextToNewNode = tempNode.next;
-            tempNode.next = newNode;
-            newNode.next = nodeNextToNewNode;
+            linkAfter(searchByIndex(position).prev, newNode);
         }
-        count++;
+        return newNode;
     }
 
 
     /**
      * Gets the amount of elements in the linked list
-     * 
+     *
      * @return count of elements in the list
      */
     public int getCount() {
@@ -86,7 +95,7 @@ public class LinkedList<E> {
 
     /**
      * Returns true is list is empty
-     * 
+     *
      * @return returns true if nothing is in the list
      */
     public boolean isEmpty() {
@@ -97,8 +106,8 @@ public class LinkedList<E> {
     /**
      * Returns the Node containing data item after searching
      * for a given index. If invalid index is passed, proper
-     * exception is thrown.
-     * 
+     * exception is thrown. The search starts from whichever end is nearer.
+     *
      * @param index
      *            - index position we are searching for
      * @return gives back the node we want
@@ -107,14 +116,18 @@ public class LinkedList<E> {
         if (index < 0 || index >= count) {
             throw new IndexOutOfBoundsException("Illegal index");
         }
-        /* Validation passed, let's search for value using the index */
-        Node<E> temp = head;
-        for (int i = 0; i < index; i++) {
-            /*
-             * Start from 0 and go till one less then index
-             * because we are jumping to next node inside the loop
-             */
-            temp = temp.next;
+        Node<E> temp;
+        if (index < count / 2) {
+            temp = head.next;
+            for (int i = 0; i < index; i++) {
+                temp = temp.next;
+            }
+        }
+        else {
+            temp = tail.prev;
+            for (int i = count - 1; i > index; i--) {
+                temp = temp.prev;
+            }
         }
         return temp;
     }
@@ -122,19 +135,17 @@ public class LinkedList<E> {
 
     /**
      * Gives back the first node containing what's in parameter value
-     * 
+     *
      * @param value
      *            - element we wish to get
      * @return null if not found, returns element if found
      */
     public Node<E> getValue(E value) {
         /* Traverse through each node until this value is found */
-        Node<E> temp = head;
-        while (null != temp.next && temp.item != value) {
-            temp = temp.next;
-        }
-        if (temp.item == value) {
-            return temp;
+        for (Node<E> temp = head.next; temp != tail; temp = temp.next) {
+            if (temp.item == value) {
+                return temp;
+            }
         }
         return null;
     }
@@ -144,13 +155,9 @@ public class LinkedList<E> {
      * Delete's the element present at head node
      */
     public void removeHead() {
-        /* If list is empty, return */
-        if (null == head) {
-            return;
+        if (count > 0) {
+            remove(head.next);
         }
-        /* Update head and reduce size */
-        head = head.next;
-        count--;
     }
 
 
@@ -158,25 +165,29 @@ public class LinkedList<E> {
      * Delete for the last node
      */
     public void deleteFromTail() {
-        // if empty then no additional action needed
-        if (null == head) {
-            return;
-        }
+        removeTail();
+    }
+
 
-        Node<E> currentNode = head;
-        Node<E> nextNode = currentNode.next;
-        while (currentNode.next != null && nextNode.next != null) {
-            currentNode = currentNode.next;
-            nextNode = nextNode.next;
+    /**
+     * Takes the last node off the list. The node can be given a new item
+     * and put back with moveToFront.
+     *
+     * @return the node taken off, null if the list is empty
+     */
+    public Node<E> removeTail() {
+        if (count == 0) {
+            return null;
         }
-        currentNode.next = null;
-        count--;
+        Node<E> last = tail.prev;
+        remove(last);
+        return last;
     }
 
 
     /**
      * Delete's the element present at index position
-     * 
+     *
      * @param position
      *            position of the item wanted to remove from the list
      */
@@ -184,29 +195,82 @@ public class LinkedList<E> {
         if (position < 0 || position >= count) {
             throw new IllegalArgumentException("Position is Invalid");
         }
-        /* Conditions check passed, let's delete the node */
-        Node<E> nodeToBeDeleted = head;
-        for (int i = 0; i < position; i++) {
-            nodeToBeDeleted = nodeToBeDeleted.next;
+        remove(searchByIndex(position));
+    }
+
+
+    /**
+     * Takes a node off the list. A node already taken off is left alone.
+     *
+     * @param node
+     *            - node in this list, or one removed from it
+     * @return true if the node was on the list
+     */
+    public boolean remove(Node<E> node) {
+        if (node.prev == null) {
+            return false;
         }
-        if (nodeToBeDeleted.next == null) {
-            /* If this is a last node */
-            deleteFromTail();
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        count--;
+        return true;
+    }
+
+
+    /**
+     * Puts a node at the front of the list. A node already in the list is
+     * moved there, and one taken off earlier is put back.
+     *
+     * @param node
+     *            - node in this list, or one removed from it
+     */
+    public void moveToFront(Node<E> node) {
+        if (node.prev == head) {
+            return;
         }
-        else {
-            nodeToBeDeleted.item = nodeToBeDeleted.next.item;
-            nodeToBeDeleted.next = nodeToBeDeleted.next.next;
+        if (node.prev != null) {
+            remove(node);
         }
+        linkAfter(head, node);
+    }
+
+
+    /**
+     * Links a node that is in no list in after another
+     *
+     * @param before
+     *            - node the new one goes after
+     * @param node
+     *            - node to link in
+     */
+    private void linkAfter(Node<E> before, Node<E> node) {
+        node.prev = before;
+        node.next = before.next;
+        before.next.prev = node;
+        before.next = node;
+        count++;
     }
 
 
     /**
      * Gets the node at the start of the linkedList
-     * 
-     * @return head buffer(most recently used)
+     *
+     * @return head buffer(most recently used), null if the list is empty
      */
     public Node<E> getHead() {
-        return head;
+        return count == 0 ? null : head.next;
+    }
+
+
+    /**
+     * Gets the node at the end of the linkedList
+     *
+     * @return tail buffer(least recently used), null if the list is empty
+     */
+    public Node<E> getTail() {
+        return count == 0 ? null : tail.prev;
     }
 
     public class Node<T> {
@@ -221,9 +285,14 @@ public class LinkedList<E> {
          */
         Node<T> next;
 
+        /**
+         * Pointer to the previous node
+         */
+        Node<T> prev;
+
         /**
          * Node constructor
-         * 
+         *
          * @param item
          *            item to be added
          */
@@ -0,0 +1,143 @@
+import student.TestCase;
+
+/**
+ * Tests for the doubly linked list and the node handles it gives out
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class LinkedListTest extends TestCase {
+
+    private LinkedList<String> list;
+
+    /**
+     * Creates an empty list
+     */
+    public void setUp() {
+        list = new LinkedList<String>();
+    }
+
+
+    /**
+     * Items land where each insert puts them and are found by index from
+     * either end
+     */
+    public void testInsert() {
+        assertTrue(list.isEmpty());
+        assertNull(list.getHead());
+        assertNull(list.getTail());
+        list.insertBack("b");
+        list.insertHead("a");
+        list.insertBack("d");
+        list.insertAtPosition("c", 2);
+        list.insertAtPosition("e", 4);
+        assertEquals(5, list.getCount());
+        assertEquals("abcde", contents());
+        assertEquals("a", list.getHead().item);
+        assertEquals("e", list.getTail().item);
+        assertEquals("d", list.searchByIndex(3).item);
+        assertSame(list.searchByIndex(1), list.getValue("b"));
+        assertNull(list.getValue("z"));
+        try {
+            list.insertAtPosition("f", 7);
+            fail("inserted past the end");
+        }
+        catch (IllegalArgumentException e) {
+            assertNotNull(e.getMessage());
+        }
+        try {
+            list.searchByIndex(5);
+            fail("found an index past the end");
+        }
+        catch (IndexOutOfBoundsException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Every way of removing takes exactly one node off and counts it,
+     * including removeSpecific, and removing a node twice changes nothing
+     */
+    public void testRemove() {
+        for (String item : new String[] {"a", "b", "c", "d", "e"}) {
+            list.insertBack(item);
+        }
+        list.removeSpecific(2);
+        assertEquals(4, list.getCount());
+        assertEquals("abde", contents());
+        list.removeHead();
+        list.deleteFromTail();
+        assertEquals("bd", contents());
+        LinkedList<String>.Node<String> node = list.getHead();
+        assertTrue(list.remove(node));
+        assertFalse(list.remove(node));
+        assertEquals(1, list.getCount());
+        assertEquals("d", list.removeTail().item);
+        assertTrue(list.isEmpty());
+        assertNull(list.removeTail());
+        list.removeHead();
+        assertEquals(0, list.getCount());
+        try {
+            list.removeSpecific(0);
+            fail("removed from an empty list");
+        }
+        catch (IllegalArgumentException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Nodes move to the front from anywhere, and a node taken off the tail
+     * can be given a new item and put back without a new node
+     */
+    public void testMoveToFrontReusesNodes() {
+        LinkedList<String>.Node<String> a = list.insertBack("a");
+        list.insertBack("b");
+        LinkedList<String>.Node<String> c = list.insertBack("c");
+        list.moveToFront(c);
+        assertEquals("cab", contents());
+        list.moveToFront(c);
+        assertEquals("cab", contents());
+        list.moveToFront(a);
+        assertEquals("acb", contents());
+
+        LinkedList<String>.Node<String> last = list.removeTail();
+        assertEquals("b", last.item);
+        assertEquals(2, list.getCount());
+        last.item = "z";
+        list.moveToFront(last);
+        assertEquals("zac", contents());
+        assertEquals(3, list.getCount());
+        assertSame(last, list.getHead());
+
+        assertTrue(list.remove(a));
+        list.moveToFront(a);
+        assertEquals("azc", contents());
+        assertEquals(3, list.getCount());
+    }
+
+
+    /**
+     * Reads the list from front to back and checks it reads the same from
+     * back to front
+     *
+     * @return every item in order, joined
+     */
+    private String contents() {
+        StringBuilder forward = new StringBuilder();
+        for (int i = 0; i < list.getCount(); i++) {
+            forward.append(list.searchByIndex(i).item);
+        }
+        StringBuilder backward = new StringBuilder();
+        LinkedList<String>.Node<String> node = list.getTail();
+        for (int i = 0; i < list.getCount(); i++) {
+            backward.insert(0, node.item);
+            node = node.prev;
+        }
+        assertEquals(forward.toString(), backward.toString());
+        return forward.toString();
+    }
+
+}
@@ -0,0 +1,180 @@
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-2 (O'Neil, O'Neil and Weikum): throws out the block whose second most
+ * recent use is oldest. Blocks used only once are thrown out first, oldest
+ * first, so a one-pass scan cannot push out blocks that are used over and
+ * over. Slots are kept in a heap ordered by their use times, so every call
+ * is O(log n). History is only kept while a block is in the pool.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    private long[] last;
+    private long[] previous;
+    private int[] heap;
+    private int[] position;
+    private int size;
+    private long clock;
+
+    /**
+     * Creates the policy
+     *
+     * @param capacity
+     *            - number of slots
+     */
+    public LruKPolicy(int capacity) {
+        last = new long[capacity];
+        previous = new long[capacity];
+        heap = new int[capacity];
+        position = new int[capacity];
+        size = 0;
+        clock = 0;
+    }
+
+
+    @Override
+    public void insert(int slot, long blockID) {
+        previous[slot] = 0;
+        last[slot] = ++clock;
+        heap[size] = slot;
+        position[slot] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+
+    @Override
+    public void access(int slot) {
+        previous[slot] = last[slot];
+        last[slot] = ++clock;
+        siftDown(position[slot]);
+    }
+
+
+    @Override
+    public int victim(
+        long incoming,
+        IntPredicate preferred,
+        IntPredicate evictable) {
+        int best = oldest(preferred, PREFERRED_WINDOW);
+        if (best < 0) {
+            best = oldest(evictable, Integer.MAX_VALUE);
+        }
+        if (best >= 0) {
+            remove(best);
+        }
+        return best;
+    }
+
+
+    /**
+     * Finds the slot to throw out first among those that match. A limit
+     * keeps to the top of the heap, where the oldest slots are, without
+     * walking all of it.
+     *
+     * @param matching
+     *            - tells whether a slot may be picked
+     * @param limit
+     *            - most heap entries to look at
+     * @return oldest matching slot of those looked at, -1 if none match
+     */
+    private int oldest(IntPredicate matching, int limit) {
+        if (size > 0 && matching.test(heap[0])) {
+            return heap[0];
+        }
+        // the oldest slot does not match, look for the oldest one that does
+        int best = -1;
+        for (int i = 1; i < Math.min(size, limit); i++) {
+            int slot = heap[i];
+            if (matching.test(slot) && (best < 0 || older(slot, best))) {
+                best = slot;
+            }
+        }
+        return best;
+    }
+
+
+    @Override
+    public void remove(int slot) {
+        int index = position[slot];
+        size--;
+        if (index < size) {
+            heap[index] = heap[size];
+            position[heap[index]] = index;
+            siftDown(index);
+            siftUp(index);
+        }
+    }
+
+
+    /**
+     * Tells whether one slot should be thrown out before another
+     *
+     * @param a
+     *            - one slot
+     * @param b
+     *            - other slot
+     * @return true if a's second to last use is older, or the same and its
+     *         last use is older
+     */
+    private boolean older(int a, int b) {
+        if (previous[a] != previous[b]) {
+            return previous[a] < previous[b];
+        }
+        return last[a] < last[b];
+    }
+
+
+    /**
+     * Moves a heap entry up while it is older than its parent
+     *
+     * @param index
+     *            - heap index to fix
+     */
+    private void siftUp(int index) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!older(slot, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            position[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = slot;
+        position[slot] = index;
+    }
+
+
+    /**
+     * Moves a heap entry down while a child is older
+     *
+     * @param index
+     *            - heap index to fix
+     */
+    private void siftDown(int index) {
+        int slot = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && older(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!older(heap[child], slot)) {
+                break;
+            }
+            heap[index] = heap[child];
+            position[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = slot;
+        position[slot] = index;
+    }
+
+}
@@ -0,0 +1,93 @@
+import java.util.function.IntPredicate;
+
+/**
+ * Least recently used: throws out the block that has gone longest without
+ * being used. The order is kept in the project's LinkedList, one node per
+ * slot made up front, and nodes are moved and put back by handle, so
+ * keeping the order never allocates.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    private LinkedList<Integer> order;
+    private LinkedList<Integer>.Node<Integer>[] nodes;
+
+    /**
+     * Creates the policy
+     *
+     * @param capacity
+     *            - number of slots
+     */
+    @SuppressWarnings("unchecked")
+    public LruPolicy(int capacity) {
+        order = new LinkedList<Integer>();
+        nodes = new LinkedList.Node[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            nodes[slot] = order.insertBack(slot);
+        }
+        // every slot starts empty, off the list
+        for (int slot = 0; slot < capacity; slot++) {
+            order.remove(nodes[slot]);
+        }
+    }
+
+
+    @Override
+    public void insert(int slot, long blockID) {
+        order.moveToFront(nodes[slot]);
+    }
+
+
+    @Override
+    public void access(int slot) {
+        order.moveToFront(nodes[slot]);
+    }
+
+
+    @Override
+    public int victim(
+        long incoming,
+        IntPredicate preferred,
+        IntPredicate evictable) {
+        int slot = lastMatching(preferred, PREFERRED_WINDOW);
+        if (slot < 0) {
+            slot = lastMatching(evictable, Integer.MAX_VALUE);
+        }
+        if (slot >= 0) {
+            order.remove(nodes[slot]);
+        }
+        return slot;
+    }
+
+
+    @Override
+    public void remove(int slot) {
+        order.remove(nodes[slot]);
+    }
+
+
+    /**
+     * Finds the slot nearest the least recently used end that matches
+     *
+     * @param matching
+     *            - tells whether a slot may be picked
+     * @param limit
+     *            - most slots to look at
+     * @return that slot, -1 if none of them match
+     */
+    private int lastMatching(IntPredicate matching, int limit) {
+        LinkedList<Integer>.Node<Integer> node = order.getTail();
+        int looked = Math.min(order.getCount(), limit);
+        for (int i = 0; i < looked; i++) {
+            int slot = node.item;
+            if (matching.test(slot)) {
+                return slot;
+            }
+            node = node.prev;
+        }
+        return -1;
+    }
+
+}
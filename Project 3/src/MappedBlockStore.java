@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Block store that memory maps the file in large windows and hands out
+ * slices of those windows as blocks. Reads and writes of records go
+ * straight to the mapping, so nothing is copied and a block that is dropped
+ * from the pool never needs to be written back; the operating system writes
+ * the pages out on its own.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class MappedBlockStore implements BlockStore {
+
+    /**
+     * Largest window mapped at once, kept a multiple of every block size
+     */
+    public static final int WINDOW_SIZE = 1 << 30;
+
+    private MappedByteBuffer[] windows;
+    private long fileLength;
+    private int blockSize;
+    private int blocksPerWindow;
+
+    /**
+     * Maps a whole open file
+     *
+     * @param randFile
+     *            - file with input, opened for reading and writing
+     * @param blockBytes
+     *            - size of each block in bytes, must divide WINDOW_SIZE
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public MappedBlockStore(RandomAccessFile randFile, int blockBytes)
+        throws IOException {
+        FileChannel channel = randFile.getChannel();
+        fileLength = channel.size();
+        blockSize = blockBytes;
+        blocksPerWindow = WINDOW_SIZE / blockBytes;
+        int count = (int)((fileLength + WINDOW_SIZE - 1) / WINDOW_SIZE);
+        windows = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long)i * WINDOW_SIZE;
+            long size = Math.min(WINDOW_SIZE, fileLength - start);
+            windows[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+                size);
+        }
+    }
+
+
+    @Override
+    public long length() {
+        return fileLength;
+    }
+
+
+    @Override
+    public int blockSize() {
+        return blockSize;
+    }
+
+
+    @Override
+    public ByteBuffer load(long blockID, ByteBuffer frame) {
+        MappedByteBuffer window = windows[(int)(blockID / blocksPerWindow)];
+        int offset = (int)(blockID % blocksPerWindow) * blockSize;
+        return window.slice(offset, Math.min(blockSize, window.capacity()
+            - offset));
+    }
+
+
+    @Override
+    public void store(long blockID, ByteBuffer data) {
+        // the slice is the file, there is nothing to copy back
+    }
+
+
+    @Override
+    public boolean copiesBlocks() {
+        return false;
+    }
+
+
+    @Override
+    public void force() {
+        for (MappedByteBuffer window : windows) {
+            window.force();
+        }
+    }
+
+}
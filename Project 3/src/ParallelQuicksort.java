@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Quicksort that sorts the two sides of each partition at the same time on
+ * a fork/join pool. Ranges are split into tasks until they fall below a
+ * threshold or have been split 2 log n times, then each task finishes its
+ * range with the sequential introsort. Tasks only ever touch their own
+ * disjoint range of records, so they can share one buffer pool.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class ParallelQuicksort {
+
+    /**
+     * Ranges with fewer records than this are sorted on one thread
+     */
+    public static final long DEFAULT_THRESHOLD = 1 << 14;
+
+    private int threads;
+    private long threshold;
+    private QuicksortSpecialized sorter;
+
+    /**
+     * Creates a parallel sorter with the default threshold
+     *
+     * @param numThreads
+     *            - number of worker threads
+     */
+    public ParallelQuicksort(int numThreads) {
+        this(numThreads, DEFAULT_THRESHOLD);
+    }
+
+
+    /**
+     * Creates a parallel sorter
+     *
+     * @param numThreads
+     *            - number of worker threads
+     * @param minForkRecords
+     *            - ranges smaller than this are not split into more tasks
+     */
+    public ParallelQuicksort(int numThreads, long minForkRecords) {
+        this(numThreads, minForkRecords, new QuicksortSpecialized());
+    }
+
+
+    /**
+     * Creates a parallel sorter that partitions like a given sequential one
+     *
+     * @param numThreads
+     *            - number of worker threads
+     * @param minForkRecords
+     *            - ranges smaller than this are not split into more tasks
+     * @param sequential
+     *            - sorter used for each step and for small ranges
+     */
+    public ParallelQuicksort(
+        int numThreads,
+        long minForkRecords,
+        QuicksortSpecialized sequential) {
+        threads = numThreads;
+        threshold = Math.max(2, minForkRecords);
+        sorter = sequential;
+    }
+
+
+    /**
+     * Sorts a range of records
+     *
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - index of the first record
+     * @param rightIndex
+     *            - index of the last record
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void quicksort(BufferPool bp, long leftIndex, long rightIndex)
+        throws IOException {
+        ForkJoinPool workers = new ForkJoinPool(threads);
+        try {
+            workers.invoke(new SortTask(bp, leftIndex, rightIndex,
+                QuicksortSpecialized.depthLimit(rightIndex - leftIndex + 1)));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        finally {
+            workers.shutdown();
+        }
+    }
+
+
+    /**
+     * Sorts one range, forking a task for each side while the range is big
+     */
+    private class SortTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private BufferPool bp;
+        private long left;
+        private long right;
+        private int depth;
+
+        /**
+         * Creates a task for a range
+         *
+         * @param pool
+         *            - buffer pool shared by every task
+         * @param leftIndex
+         *            - index of the first record
+         * @param rightIndex
+         *            - index of the last record
+         * @param levels
+         *            - partition levels left before the range is handed to
+         *            the sequential sort whatever its size, which carries
+         *            on from the same count
+         */
+        SortTask(
+            BufferPool pool,
+            long leftIndex,
+            long rightIndex,
+            int levels) {
+            bp = pool;
+            left = leftIndex;
+            right = rightIndex;
+            depth = levels;
+        }
+
+
+        @Override
+        protected void compute() {
+            try {
+                if (right - left < threshold || depth == 0) {
+                    sorter.quicksort(bp, left, right, depth);
+                    return;
+                }
+                long[] bounds = new long[2];
+                sorter.placePivots(bp, left, right, bounds);
+                invokeAll(new SortTask(bp, left, bounds[0] - 1, depth - 1),
+                    new SortTask(bp, bounds[1] + 1, right, depth - 1));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Replays an access trace through a replacement policy with no disk behind
+ * it and counts hits, so policies can be compared on the exact block order
+ * a real sort produced
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class PolicySimulator {
+
+    /**
+     * Replays a trace through one policy
+     *
+     * @param traceFile
+     *            - trace written by AccessTrace
+     * @param policyName
+     *            - one of ReplacementPolicy.NAMES
+     * @param capacity
+     *            - number of buffers to simulate
+     * @return hits in slot 0 and misses in slot 1
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public static long[] replay(
+        String traceFile,
+        String policyName,
+        int capacity)
+        throws IOException {
+        ReplacementPolicy policy = ReplacementPolicy.create(policyName,
+            capacity);
+        BlockTable<Integer> table = new BlockTable<Integer>(capacity);
+        long[] blockIDs = new long[capacity];
+        int used = 0;
+        long hits = 0;
+        long misses = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(traceFile), 1 << 16));
+        try {
+            while (true) {
+                long blockID;
+                int count;
+                try {
+                    blockID = in.readLong();
+                    count = in.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                Integer slot = table.get(blockID);
+                if (slot != null) {
+                    hits++;
+                    policy.access(slot);
+                }
+                else {
+                    misses++;
+                    int free;
+                    if (used < capacity) {
+                        free = used++;
+                    }
+                    else {
+                        free = policy.victim(blockID, s -> true);
+                        table.remove(blockIDs[free]);
+                    }
+                    blockIDs[free] = blockID;
+                    table.put(blockID, free);
+                    policy.insert(free, blockID);
+                    slot = free;
+                }
+                // later uses in a row are all hits; only the next one can
+                // change any policy's state
+                if (count > 1) {
+                    hits += count - 1;
+                    policy.access(slot);
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+        return new long[] {hits, misses};
+    }
+
+
+    /**
+     * Replays a trace through every policy and prints a line per policy
+     *
+     * @param traceFile
+     *            - trace written by AccessTrace
+     * @param capacity
+     *            - number of buffers to simulate
+     * @param out
+     *            - where to print the report
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public static void report(String traceFile, int capacity, PrintStream out)
+        throws IOException {
+        out.println("policy  buffers  hits  misses  hit rate");
+        for (String name : ReplacementPolicy.NAMES) {
+            long[] result = replay(traceFile, name, capacity);
+            long total = result[0] + result[1];
+            double rate = total == 0 ? 0 : 100.0 * result[0] / total;
+            out.println(String.format("%-6s  %d  %d  %d  %.2f%%", name,
+                capacity, result[0], result[1], rate));
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters for one sort: how the buffer pool's cache did, how much went to
+ * and from the file and how long it took, and how long each phase of the
+ * sort ran. Any number of threads may count at once. The totals can be
+ * appended to a stats file as one JSON line per run, and watched live over
+ * JMX.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class PoolStats implements PoolStatsMBean {
+
+    /**
+     * Name the stats are registered under over JMX
+     */
+    public static final String JMX_NAME = "BufferPool:type=PoolStats";
+
+    /**
+     * One bucket per power of two of nanoseconds
+     */
+    private static final int BUCKETS = 64;
+
+    private LongAdder hits;
+    private LongSupplier hitSource;
+    private LongAdder misses;
+    private LongAdder reads;
+    private LongAdder writes;
+    private LongAdder evictions;
+    private LongAdder dirtyEvictions;
+    private LongAdder prefetches;
+    private LongAdder bytesRead;
+    private LongAdder bytesWritten;
+    private LongAdder[] readLatency;
+    private LongAdder[] writeLatency;
+    private Map<String, Long> phases;
+    private ObjectName registeredAs;
+
+    /**
+     * Creates stats with every counter at zero
+     */
+    public PoolStats() {
+        hits = new LongAdder();
+        misses = new LongAdder();
+        reads = new LongAdder();
+        writes = new LongAdder();
+        evictions = new LongAdder();
+        dirtyEvictions = new LongAdder();
+        prefetches = new LongAdder();
+        bytesRead = new LongAdder();
+        bytesWritten = new LongAdder();
+        readLatency = newHistogram();
+        writeLatency = newHistogram();
+        phases = new LinkedHashMap<String, Long>();
+    }
+
+
+    /**
+     * Makes an empty latency histogram
+     *
+     * @return one zeroed counter per bucket
+     */
+    private static LongAdder[] newHistogram() {
+        LongAdder[] histogram = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Counts a block request served from memory
+     */
+    public void hit() {
+        hits.increment();
+    }
+
+
+    /**
+     * Adds hits counted elsewhere to the total. The buffer pool counts its
+     * hits under locks it already holds, which is cheaper than bumping a
+     * shared counter on every record access.
+     *
+     * @param source
+     *            - gives the hits counted so far
+     */
+    public void countHitsFrom(LongSupplier source) {
+        hitSource = source;
+    }
+
+
+    /**
+     * Counts a block request that had to load the block
+     */
+    public void miss() {
+        misses.increment();
+    }
+
+
+    /**
+     * Counts a block read from the file
+     *
+     * @param bytes
+     *            - bytes read
+     * @param nanos
+     *            - how long the read took
+     */
+    public void read(int bytes, long nanos) {
+        reads.increment();
+        bytesRead.add(bytes);
+        readLatency[bucket(nanos)].increment();
+    }
+
+
+    /**
+     * Counts a block written to the file
+     *
+     * @param bytes
+     *            - bytes written
+     * @param nanos
+     *            - how long the write took
+     */
+    public void write(int bytes, long nanos) {
+        writes.increment();
+        bytesWritten.add(bytes);
+        writeLatency[bucket(nanos)].increment();
+    }
+
+
+    /**
+     * Counts a buffer thrown out to make room
+     *
+     * @param dirty
+     *            - true if it had to be written back first
+     */
+    public void evicted(boolean dirty) {
+        evictions.increment();
+        if (dirty) {
+            dirtyEvictions.increment();
+        }
+    }
+
+
+    /**
+     * Counts a block read ahead of a scan
+     */
+    public void prefetched() {
+        prefetches.increment();
+    }
+
+
+    /**
+     * Adds time to a phase of the sort. Phases are reported in the order
+     * they were first seen.
+     *
+     * @param name
+     *            - name of the phase
+     * @param nanos
+     *            - time spent in it
+     */
+    public synchronized void phase(String name, long nanos) {
+        phases.merge(name, nanos, Long::sum);
+    }
+
+
+    /**
+     * Adds everything another set of stats counted, except its phases, to
+     * these. A sort that runs several pools folds each one in when it is
+     * done with it.
+     *
+     * @param other
+     *            - stats to add, no longer being counted into
+     */
+    public void add(PoolStats other) {
+        hits.add(other.getHits());
+        misses.add(other.misses.sum());
+        reads.add(other.reads.sum());
+        writes.add(other.writes.sum());
+        evictions.add(other.evictions.sum());
+        dirtyEvictions.add(other.dirtyEvictions.sum());
+        prefetches.add(other.prefetches.sum());
+        bytesRead.add(other.bytesRead.sum());
+        bytesWritten.add(other.bytesWritten.sum());
+        for (int i = 0; i < BUCKETS; i++) {
+            readLatency[i].add(other.readLatency[i].sum());
+            writeLatency[i].add(other.writeLatency[i].sum());
+        }
+    }
+
+
+    /**
+     * Gets the histogram bucket for a duration
+     *
+     * @param nanos
+     *            - duration
+     * @return bucket index
+     */
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+
+
+    @Override
+    public long getHits() {
+        LongSupplier source = hitSource;
+        return hits.sum() + (source == null ? 0 : source.getAsLong());
+    }
+
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+    @Override
+    public double getHitRate() {
+        long hit = getHits();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double)hit / total;
+    }
+
+
+    @Override
+    public long getReads() {
+        return reads.sum();
+    }
+
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+
+    @Override
+    public long getDirtyEvictions() {
+        return dirtyEvictions.sum();
+    }
+
+
+    @Override
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+
+    @Override
+    public long[] getReadLatencyHistogram() {
+        return sums(readLatency);
+    }
+
+
+    @Override
+    public long[] getWriteLatencyHistogram() {
+        return sums(writeLatency);
+    }
+
+
+    /**
+     * Reads a histogram, dropping the empty buckets at the top
+     *
+     * @param histogram
+     *            - counters to read
+     * @return count per bucket up to the last one in use
+     */
+    private static long[] sums(LongAdder[] histogram) {
+        long[] counts = new long[BUCKETS];
+        int used = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram[i].sum();
+            if (counts[i] != 0) {
+                used = i + 1;
+            }
+        }
+        long[] trimmed = new long[used];
+        System.arraycopy(counts, 0, trimmed, 0, used);
+        return trimmed;
+    }
+
+
+    @Override
+    public synchronized String getJson() {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"time\":").append(System.currentTimeMillis());
+        json.append(",\"hits\":").append(getHits());
+        json.append(",\"misses\":").append(getMisses());
+        json.append(",\"hitRate\":").append(String.format(Locale.ROOT,
+            "%.6f", getHitRate()));
+        json.append(",\"reads\":").append(getReads());
+        json.append(",\"writes\":").append(getWrites());
+        json.append(",\"evictions\":").append(getEvictions());
+        json.append(",\"dirtyEvictions\":").append(getDirtyEvictions());
+        json.append(",\"prefetches\":").append(getPrefetches());
+        json.append(",\"bytesRead\":").append(getBytesRead());
+        json.append(",\"bytesWritten\":").append(getBytesWritten());
+        json.append(",\"readLatencyLog2Nanos\":");
+        appendArray(json, getReadLatencyHistogram());
+        json.append(",\"writeLatencyLog2Nanos\":");
+        appendArray(json, getWriteLatencyHistogram());
+        json.append(",\"phaseMillis\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(phase.getKey()).append("\":").append(
+                phase.getValue() / 1_000_000);
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+
+    /**
+     * Appends a JSON array of numbers
+     *
+     * @param json
+     *            - text being built
+     * @param values
+     *            - numbers to append
+     */
+    private static void appendArray(StringBuilder json, long[] values) {
+        json.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(values[i]);
+        }
+        json.append(']');
+    }
+
+
+    /**
+     * Appends the stats to a file as one line of JSON
+     *
+     * @param filename
+     *            - stats file, created if it does not exist
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void appendTo(String filename) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(filename, true));
+        try {
+            out.println(getJson());
+        }
+        finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Could not write stats to " + filename);
+        }
+    }
+
+
+    /**
+     * Publishes the stats over JMX under JMX_NAME. Only one set of stats
+     * can be published at a time.
+     *
+     * @return true if they were published, false if the name is taken or
+     *         JMX refused them
+     */
+    public synchronized boolean register() {
+        try {
+            ObjectName name = new ObjectName(JMX_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, name);
+            registeredAs = name;
+            return true;
+        }
+        catch (JMException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Takes the stats off JMX if register published them
+     */
+    public synchronized void unregister() {
+        if (registeredAs == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                registeredAs);
+        }
+        catch (JMException e) {
+            // already gone, nothing left to do
+        }
+        registeredAs = null;
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * What a running sort shows over JMX. Every value is a total since the
+ * stats were created.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public interface PoolStatsMBean {
+
+    /**
+     * Gets the block requests served from memory
+     *
+     * @return cache hits
+     */
+    long getHits();
+
+
+    /**
+     * Gets the block requests that had to load the block
+     *
+     * @return cache misses
+     */
+    long getMisses();
+
+
+    /**
+     * Gets the share of block requests served from memory
+     *
+     * @return hits divided by all requests, 0 before the first request
+     */
+    double getHitRate();
+
+
+    /**
+     * Gets the blocks read from the file
+     *
+     * @return disk reads
+     */
+    long getReads();
+
+
+    /**
+     * Gets the blocks written to the file
+     *
+     * @return disk writes
+     */
+    long getWrites();
+
+
+    /**
+     * Gets the buffers thrown out to make room for another block
+     *
+     * @return evictions
+     */
+    long getEvictions();
+
+
+    /**
+     * Gets the evictions that had to write the buffer back first
+     *
+     * @return dirty evictions
+     */
+    long getDirtyEvictions();
+
+
+    /**
+     * Gets the blocks read ahead of a scan
+     *
+     * @return prefetched blocks
+     */
+    long getPrefetches();
+
+
+    /**
+     * Gets the bytes read from the file
+     *
+     * @return bytes read
+     */
+    long getBytesRead();
+
+
+    /**
+     * Gets the bytes written to the file
+     *
+     * @return bytes written
+     */
+    long getBytesWritten();
+
+
+    /**
+     * Gets how long reads took. Bucket i counts reads that took less than
+     * 2^i nanoseconds and at least half that.
+     *
+     * @return read count per power of two bucket
+     */
+    long[] getReadLatencyHistogram();
+
+
+    /**
+     * Gets how long writes took, bucketed like the read histogram
+     *
+     * @return write count per power of two bucket
+     */
+    long[] getWriteLatencyHistogram();
+
+
+    /**
+     * Gets everything above as one JSON object, along with the time spent
+     * in each phase of the sort
+     *
+     * @return stats as a single line of JSON
+     */
+    String getJson();
+
+}
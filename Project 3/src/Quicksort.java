@@ -5,8 +5,11 @@
  */
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * The class containing the main method. Shouldn't have access to the file.
@@ -66,6 +69,205 @@ public class Quicksort {
     }
 
 
+    /**
+     * Opens the block store the options ask for over an open file
+     * 
+     * @param options
+     *            - parsed command line
+     * @param file
+     *            - file to sort
+     * @return store the buffer pool should use
+     * @throws IOException
+     *             throws an exception on a bad file
+     */
+    private static BlockStore openStore(
+        SortOptions options,
+        RandomAccessFile file)
+        throws IOException {
+        if (options.getBackend().equals(SortOptions.BACKEND_MMAP)) {
+            return new MappedBlockStore(file, options.getBlockSize());
+        }
+        return new FileBlockStore(file, options.getBlockSize());
+    }
+
+
+    /**
+     * Sorts without touching the input: the merge sort reads it once and its
+     * last pass streams the records to the output file or standard output
+     * 
+     * @param options
+     *            - parsed command line with an output
+     * @throws IOException
+     *             throws an exception on a bad file
+     */
+    private static void streamSorted(SortOptions options) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(options.getFilename(),
+            "r");
+        ExternalMergeSort sorter = new ExternalMergeSort(options
+            .getNumBuffers(), options.getBlockSize());
+        PoolStats stats = sorter.getStats();
+        try {
+            boolean toStandardOutput = options.getOutputFilename().equals(
+                SortOptions.STANDARD_OUTPUT);
+            FileOutputStream outFile = null;
+            WritableByteChannel out;
+            if (toStandardOutput) {
+                out = Channels.newChannel(System.out);
+            }
+            else {
+                outFile = new FileOutputStream(options.getOutputFilename());
+                out = outFile.getChannel();
+            }
+            try {
+                stats.register();
+                try {
+                    sorter.sort(file, options.getFilename(), out);
+                }
+                finally {
+                    stats.unregister();
+                }
+            }
+            finally {
+                if (toStandardOutput) {
+                    System.out.flush();
+                }
+                else {
+                    outFile.close();
+                }
+            }
+        }
+        finally {
+            file.close();
+        }
+        if (options.getStatFilename() != null) {
+            stats.appendTo(options.getStatFilename());
+        }
+    }
+
+
+    /**
+     * Sorts a file in place through a buffer pool with whichever sort the
+     * options pick. The pool's threads are stopped, its stats taken off JMX
+     * and the trace closed even when the sort fails. An error closing the
+     * pool then is kept with the one that stopped the sort instead of
+     * replacing it.
+     * 
+     * @param options
+     *            - parsed command line
+     * @param file
+     *            - file to sort, open for reading and writing
+     * @param start
+     *            - when main started, in nanoseconds
+     * @return the pool's stats
+     * @throws IOException
+     *             throws an exception on a bad file
+     */
+    private static PoolStats sortThroughPool(
+        SortOptions options,
+        RandomAccessFile file,
+        long start)
+        throws IOException {
+        int scratch = scratchBuffers(options);
+        PoolStats stats;
+        try (BufferPool bp = new BufferPool(Math.max(1, options
+            .getNumBuffers() - scratch), options.getStripes(), options
+                .getPolicy(), options.getSchema(), openStore(options, file))) {
+            stats = bp.getStats();
+            if (options.getWriteBehind() > 0) {
+                bp.startWriteBehind(options.getWriteBehind());
+            }
+            if (options.getPrefetch() > 0) {
+                bp.startPrefetch(options.getPrefetch());
+            }
+            stats.register();
+            try {
+                AccessTrace trace = null;
+                try {
+                    if (options.getTraceFilename() != null) {
+                        trace = new AccessTrace(options.getTraceFilename());
+                        bp.setTrace(trace);
+                    }
+                    stats.phase("setup", System.nanoTime() - start);
+                    long sortStart = System.nanoTime();
+                    sortPool(options, bp, scratch);
+                    stats.phase("sort", System.nanoTime() - sortStart);
+                    long flushStart = System.nanoTime();
+                    bp.close();
+                    stats.phase("flush", System.nanoTime() - flushStart);
+                }
+                finally {
+                    if (trace != null) {
+                        bp.setTrace(null);
+                        trace.close();
+                    }
+                }
+            }
+            finally {
+                stats.unregister();
+            }
+        }
+        return stats;
+    }
+
+
+    /**
+     * Gets how many of the buffers go to a scratch file's pool. Sorts that
+     * copy the records through a scratch file get half, and the file's own
+     * pool is made from the rest, so the two pools together stay within the
+     * buffers asked for.
+     * 
+     * @param options
+     *            - parsed command line
+     * @return buffers for the scratch pool, 0 if the sort has none
+     */
+    private static int scratchBuffers(SortOptions options) {
+        String algorithm = options.getAlgorithm();
+        if (algorithm.equals(SortOptions.ALGORITHM_COUNTING) || algorithm
+            .equals(SortOptions.ALGORITHM_INDEX)) {
+            return Math.max(1, options.getNumBuffers() / 2);
+        }
+        return 0;
+    }
+
+
+    /**
+     * Runs the sort the options pick over every record in a pool
+     * 
+     * @param options
+     *            - parsed command line
+     * @param bp
+     *            - pool over the file
+     * @param scratch
+     *            - buffers for a scratch file's pool
+     * @throws IOException
+     *             throws an exception on a bad file
+     */
+    private static void sortPool(
+        SortOptions options,
+        BufferPool bp,
+        int scratch)
+        throws IOException {
+        QuicksortSpecialized sequential = new QuicksortSpecialized(options
+            .isThreeWay(), options.getBatchRecords());
+        if (options.getAlgorithm().equals(SortOptions.ALGORITHM_COUNTING)) {
+            new DistributionSort(scratch).sort(bp, options.getFilename());
+        }
+        else if (options.getAlgorithm().equals(SortOptions.ALGORITHM_INDEX)) {
+            new IndexSort(options.getThreads(), scratch).sort(bp, options
+                .getFilename());
+        }
+        else if (options.getThreads() > 1) {
+            ParallelQuicksort sorter = new ParallelQuicksort(options
+                .getThreads(), ParallelQuicksort.DEFAULT_THRESHOLD,
+                sequential);
+            sorter.quicksort(bp, 0, bp.getNumRecords() - 1);
+        }
+        else {
+            sequential.quicksort(bp, 0, bp.getNumRecords() - 1);
+        }
+    }
+
+
     /**
      * Main method
      * 
@@ -78,21 +280,69 @@ public class Quicksort {
         // This is the main file for the program.
 
         /**
-         * Makes sure file exists, number of buffers are between 1 and 20
+         * Makes sure the arguments make sense before touching the file
          */
-        String filename = args[0];
-        RandomAccessFile file = new RandomAccessFile(filename, "rw");
-        String numbBuffersString = args[1];
-        int numbBuffers = Integer.parseInt(numbBuffersString);
-        if (numbBuffers > 0 && numbBuffers < 21) {
-
-            BufferPool bp = new BufferPool(numbBuffers, file);
-            QuicksortSpecialized sorter = new QuicksortSpecialized();
-            sorter.quicksort(bp, 0, (bp.getFileLength() / 4) - 1);
-            bp.flush();
+        SortOptions options;
+        try {
+            options = SortOptions.parse(args);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(SortOptions.USAGE);
+            return;
+        }
+        if (options.getReplayFilename() != null) {
+            PolicySimulator.report(options.getReplayFilename(), options
+                .getNumBuffers(), System.out);
+            return;
+        }
+        if (options.getOutputFilename() != null) {
+            streamSorted(options);
+            return;
+        }
+        long start = System.nanoTime();
+        RandomAccessFile file = new RandomAccessFile(options.getFilename(),
+            "rw");
+        PoolStats stats;
+        try {
+            if (options.getAlgorithm().equals(SortOptions.ALGORITHM_MERGE)) {
+                ExternalMergeSort sorter = new ExternalMergeSort(options
+                    .getNumBuffers(), options.getBlockSize());
+                stats = sorter.getStats();
+                stats.register();
+                try {
+                    sorter.sort(file, options.getFilename());
+                }
+                finally {
+                    stats.unregister();
+                }
+            }
+            else if (options.getAlgorithm().equals(
+                SortOptions.ALGORITHM_SAMPLE)) {
+                SampleSort sorter = new SampleSort(options.getThreads(),
+                    options.getNumBuffers(), options.getBlockSize(), options
+                        .getSchema(), new QuicksortSpecialized(options
+                            .isThreeWay(), options.getBatchRecords()));
+                sorter.setDirectories(options.getBucketDirectories());
+                stats = sorter.getStats();
+                stats.register();
+                try {
+                    sorter.sort(file, options.getFilename());
+                }
+                finally {
+                    stats.unregister();
+                }
+            }
+            else {
+                stats = sortThroughPool(options, file, start);
+            }
+        }
+        finally {
+            file.close();
+        }
+        if (options.getStatFilename() != null) {
+            stats.appendTo(options.getStatFilename());
         }
-
-        file.close();
     }
 
 }
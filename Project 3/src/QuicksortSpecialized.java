@@ -1,23 +1,84 @@
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
- * Contains quicksort method and functionality
+ * Contains quicksort method and functionality. The sort is an introsort:
+ * quicksort with a median of three (or for big ranges a ninther) pivot,
+ * recursing only into the smaller side of each partition and looping on the
+ * larger, so the stack stays O(log n) deep. Small ranges are finished with
+ * an insertion sort on a copy of the records, and a range that is still
+ * being split after 2 log n levels is heapsorted, so no input can make the
+ * sort quadratic.
+ * 
+ * By default each partition is three-way (Bentley-McIlroy): records with the
+ * pivot's key are gathered in the middle and left out of both recursions,
+ * so a file with few distinct keys sorts in close to linear time. The plain
+ * two-way partition can still be chosen.
+ * 
+ * Given room for a batch of records, the sort stops partitioning through
+ * the pool as soon as a range fits in the batch. The range is copied out a
+ * block at a time, sorted as a plain int array and copied back, so the
+ * lower levels of the sort never touch the pool record by record.
  * 
  * @author {Gabriel Holder}
  * @version {October 2023}
  */
 public class QuicksortSpecialized {
 
-    private ByteBuffer byteBuffer;
-    private static final int RECORDSIZE = 4;
+    /**
+     * Ranges of at most this many records are insertion sorted
+     */
+    public static final int INSERTION_CUTOFF = 16;
+
+    /**
+     * Ranges of at least this many records take the ninther as pivot
+     */
+    public static final long NINTHER_CUTOFF = 128;
 
     /**
-     * Constructor for quicksort method
+     * Most swaps a partition collects before handing them to the pool
+     */
+    public static final int SWAP_BATCH = 64;
+
+    private boolean threeWay;
+    private int batchRecords;
+
+    /**
+     * Constructor for quicksort method, partitioning three ways
      */
     public QuicksortSpecialized() {
+        this(true);
+    }
+
 
+    /**
+     * Constructor for quicksort method
+     * 
+     * @param threeWayPartition
+     *            - true to gather keys equal to the pivot in the middle of
+     *            each partition, false for the plain two-way partition
+     */
+    public QuicksortSpecialized(boolean threeWayPartition) {
+        this(threeWayPartition, 0);
+    }
+
+
+    /**
+     * Constructor for quicksort method that sorts small enough ranges in
+     * memory
+     * 
+     * @param threeWayPartition
+     *            - true to gather keys equal to the pivot in the middle of
+     *            each partition, false for the plain two-way partition
+     * @param inMemoryRecords
+     *            - most records sorted at once in an array, 0 to always
+     *            sort through the pool
+     */
+    public QuicksortSpecialized(
+        boolean threeWayPartition,
+        int inMemoryRecords) {
+        threeWay = threeWayPartition;
+        batchRecords = inMemoryRecords;
     }
 
 
@@ -37,35 +98,508 @@ public class QuicksortSpecialized {
      * @throws IOException
      *             - throws an exception on a bad file
      */
-    public void quicksort(BufferPool bp, int leftIndex, int rightIndex)
+    public void quicksort(BufferPool bp, long leftIndex, long rightIndex)
+        throws IOException {
+        quicksort(bp, leftIndex, rightIndex, depthLimit(rightIndex - leftIndex
+            + 1));
+    }
+
+
+    /**
+     * Sorts a range that has already been through some partition levels,
+     * so it falls back to heapsort once the levels left run out instead of
+     * starting a fresh limit
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - index of the first record
+     * @param rightIndex
+     *            - index of the last record
+     * @param depth
+     *            - partition levels left before falling back to heapsort
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void quicksort(
+        BufferPool bp,
+        long leftIndex,
+        long rightIndex,
+        int depth)
         throws IOException {
+        if (leftIndex >= rightIndex) {
+            return;
+        }
+        long count = rightIndex - leftIndex + 1;
+        int room = (int)Math.max(INSERTION_CUTOFF, Math.min(batchRecords,
+            count));
+        introsort(bp, leftIndex, rightIndex, depth, new int[room],
+            new long[2]);
+    }
 
-        // Pick a pivot
-        int pivotIndex = findPivot(leftIndex, rightIndex);
 
-        // get value at that pivot
-        byte[] pivotBytes = bp.getBytes(pivotIndex, RECORDSIZE);
-        short pivotValue = getKey(pivotBytes);
-        byte[] rightBytes = bp.getBytes(rightIndex, RECORDSIZE);
+    /**
+     * Sorts a range by copying it into an array, sorting the array and
+     * copying it back. A record's int value orders it the same way its key
+     * does, so the array is sorted as plain ints.
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - index of the first record
+     * @param rightIndex
+     *            - index of the last record
+     * @param batch
+     *            - room for the whole range
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public static void sortInMemory(
+        BufferPool bp,
+        long leftIndex,
+        long rightIndex,
+        int[] batch)
+        throws IOException {
+        int count = (int)(rightIndex - leftIndex + 1);
+        bp.readRecords(leftIndex, batch, count);
+        Arrays.sort(batch, 0, count);
+        bp.writeRecords(leftIndex, batch, count);
+    }
+
+
+    /**
+     * Gets how many partition levels a range may go through before it is
+     * heapsorted instead
+     * 
+     * @param count
+     *            - records in the range
+     * @return twice the base 2 logarithm of count
+     */
+    public static int depthLimit(long count) {
+        return 2 * (63 - Long.numberOfLeadingZeros(Math.max(1, count)));
+    }
 
-        // Stick pivot at end
-        bp.swap(pivotBytes, pivotIndex, rightBytes,rightIndex, true);
+
+    /**
+     * Sorts a range, recursing into the smaller side of each partition and
+     * looping on the larger one
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - index of the first record
+     * @param rightIndex
+     *            - index of the last record
+     * @param depth
+     *            - partition levels left before falling back to heapsort
+     * @param scratch
+     *            - room for INSERTION_CUTOFF records, or for a whole batch
+     *            when ranges are sorted in memory
+     * @param bounds
+     *            - room for the two ends of the pivot's run
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void introsort(
+        BufferPool bp,
+        long leftIndex,
+        long rightIndex,
+        int depth,
+        int[] scratch,
+        long[] bounds)
+        throws IOException {
+        while (rightIndex - leftIndex >= INSERTION_CUTOFF) {
+            if (batchRecords > 0 && rightIndex - leftIndex < scratch.length
+                && bp.getSchema().sortsAsInt()) {
+                sortInMemory(bp, leftIndex, rightIndex, scratch);
+                return;
+            }
+            if (depth == 0) {
+                heapsort(bp, leftIndex, rightIndex);
+                return;
+            }
+            depth--;
+            placePivots(bp, leftIndex, rightIndex, bounds);
+            long low = bounds[0];
+            long high = bounds[1];
+            if (low - leftIndex < rightIndex - high) {
+                introsort(bp, leftIndex, low - 1, depth, scratch, bounds);
+                leftIndex = high + 1;
+            }
+            else {
+                introsort(bp, high + 1, rightIndex, depth, scratch, bounds);
+                rightIndex = low - 1;
+            }
+        }
+        insertionSort(bp, leftIndex, rightIndex, scratch);
+    }
+
+
+    /**
+     * Does one quicksort step: picks a pivot, partitions the range around it
+     * and moves the pivot to its final place. Afterwards every record left of
+     * the returned index has a smaller key and every record right of it has
+     * a key at least as big.
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - left index of the range
+     * @param rightIndex
+     *            - right index of the range, must be above leftIndex
+     * @return index the pivot ended up at
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public long placePivot(BufferPool bp, long leftIndex, long rightIndex)
+        throws IOException {
+        // Pick a pivot and stick it at the end
+        long pivotIndex = choosePivot(bp, leftIndex, rightIndex);
+        bp.swapRecords(pivotIndex, rightIndex);
+        long pivotValue = bp.getSortKey(rightIndex);
 
         // k will be the first position in the right subarray
+        long k = partition(bp, leftIndex, rightIndex - 1, pivotValue);
+
+        // Put the pivot in its final place
+        bp.swapRecords(k, rightIndex);
+        return k;
+    }
+
+
+    /**
+     * Does one partition step the way this sorter was set up to: afterwards
+     * the records from bounds[0] to bounds[1] all have the pivot's key and
+     * are in their final place, every record left of them has a smaller key
+     * and every record right of them a bigger one, or with the two-way
+     * partition one at least as big.
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - left index of the range
+     * @param rightIndex
+     *            - right index of the range, must be above leftIndex
+     * @param bounds
+     *            - gets the first and last index of the pivot's run
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void placePivots(
+        BufferPool bp,
+        long leftIndex,
+        long rightIndex,
+        long[] bounds)
+        throws IOException {
+        if (threeWay) {
+            partitionThreeWay(bp, leftIndex, rightIndex, bounds);
+        }
+        else {
+            long k = placePivot(bp, leftIndex, rightIndex);
+            bounds[0] = k;
+            bounds[1] = k;
+        }
+    }
+
+
+    /**
+     * Bentley-McIlroy three-way partition. The scans work like the two-way
+     * partition, but a record equal to the pivot is parked at whichever end
+     * of the range its scan started from. When the scans meet, the parked
+     * records are swapped into the middle. Equal keys cost a swap each, but
+     * distinct keys cost no more than before.
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - left index of the range
+     * @param rightIndex
+     *            - right index of the range, must be above leftIndex
+     * @param bounds
+     *            - gets the first and last index of the pivot's run
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void partitionThreeWay(
+        BufferPool bp,
+        long leftIndex,
+        long rightIndex,
+        long[] bounds)
+        throws IOException {
+        bp.swapRecords(choosePivot(bp, leftIndex, rightIndex), leftIndex);
+        long pivot = bp.getSortKey(leftIndex);
+        // [left, p] and [q, right] hold keys equal to the pivot
+        long p = leftIndex;
+        long q = rightIndex + 1;
+        long i = leftIndex;
+        long j = rightIndex + 1;
+        while (true) {
+            while (bp.getSortKey(++i) < pivot) {
+                if (i == rightIndex) {
+                    break;
+                }
+            }
+            while (pivot < bp.getSortKey(--j)) {
+                if (j == leftIndex) {
+                    break;
+                }
+            }
+            if (i == j && bp.getSortKey(i) == pivot) {
+                bp.swapRecords(++p, i);
+            }
+            if (i >= j) {
+                break;
+            }
+            bp.swapRecords(i, j);
+            if (bp.getSortKey(i) == pivot) {
+                bp.swapRecords(++p, i);
+            }
+            if (bp.getSortKey(j) == pivot) {
+                bp.swapRecords(--q, j);
+            }
+        }
+        i = j + 1;
+        swapMirrored(bp, leftIndex, j, p - leftIndex + 1);
+        swapMirrored(bp, i, rightIndex, rightIndex - q + 1);
+        bounds[0] = j - (p - leftIndex);
+        bounds[1] = i + (rightIndex - q);
+    }
+
+
+    /**
+     * Swaps the records walking up from one index with those walking down
+     * from another, in order, as a batch
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param up
+     *            - first record of the ascending side
+     * @param down
+     *            - first record of the descending side
+     * @param count
+     *            - number of swaps
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private static void swapMirrored(
+        BufferPool bp,
+        long up,
+        long down,
+        long count)
+        throws IOException {
+        int room = (int)Math.min(SWAP_BATCH, count);
+        long[] firsts = new long[room];
+        long[] seconds = new long[room];
+        for (long done = 0; done < count; done += room) {
+            int batch = (int)Math.min(room, count - done);
+            for (int n = 0; n < batch; n++) {
+                firsts[n] = up + done + n;
+                seconds[n] = down - done - n;
+            }
+            bp.swapRecords(firsts, seconds, batch);
+        }
+    }
+
 
-        int k = partition(bp, leftIndex, rightIndex - 1, pivotValue);
-        byte[] kBytes = bp.getBytes(k, RECORDSIZE);
-        rightBytes = bp.getBytes(k, RECORDSIZE);  
-        
-        bp.swap(kBytes, k, rightBytes, rightIndex, true);
+    /**
+     * Picks the index of a pivot whose key is likely near the middle of the
+     * range: the median of the first, middle and last keys, or for big
+     * ranges the median of three such medians spread over the range
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param lowest
+     *            - low index
+     * @param highest
+     *            - highest index
+     * @return index of the pivot
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public long choosePivot(BufferPool bp, long lowest, long highest)
+        throws IOException {
+        long middle = findPivot(lowest, highest);
+        if (highest - lowest + 1 < NINTHER_CUTOFF) {
+            return medianOfThree(bp, lowest, middle, highest);
+        }
+        long step = (highest - lowest) / 8;
+        long low = medianOfThree(bp, lowest, lowest + step, lowest + 2 * step);
+        long mid = medianOfThree(bp, middle - step, middle, middle + step);
+        long high = medianOfThree(bp, highest - 2 * step, highest - step,
+            highest);
+        return medianOfThree(bp, low, mid, high);
+    }
 
-        if ((k - leftIndex) > 1) {
-            quicksort(bp, leftIndex, k - 1);
-        } // Sort left partition
-        if ((rightIndex - k) > 1) {
-            quicksort(bp, k + 1, rightIndex);
-        } // Sort right partition
 
+    /**
+     * Gets whichever of three records has the middle key
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param a
+     *            - index of one record
+     * @param b
+     *            - index of another record
+     * @param c
+     *            - index of the last record
+     * @return index of the record with the median key
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private long medianOfThree(BufferPool bp, long a, long b, long c)
+        throws IOException {
+        long keyA = bp.getSortKey(a);
+        long keyB = bp.getSortKey(b);
+        long keyC = bp.getSortKey(c);
+        if (keyA < keyB) {
+            if (keyB < keyC) {
+                return b;
+            }
+            return keyA < keyC ? c : a;
+        }
+        if (keyA < keyC) {
+            return a;
+        }
+        return keyB < keyC ? c : b;
+    }
+
+
+    /**
+     * Sorts a small range by copying it out of the pool, insertion sorting
+     * the copy and writing it back. The range usually sits in one block, so
+     * this pins one buffer twice instead of once per comparison. Records
+     * that do not sort as ints are insertion sorted in place instead.
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - index of the first record
+     * @param rightIndex
+     *            - index of the last record, at most INSERTION_CUTOFF - 1
+     *            past leftIndex
+     * @param scratch
+     *            - room for INSERTION_CUTOFF records
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void insertionSort(
+        BufferPool bp,
+        long leftIndex,
+        long rightIndex,
+        int[] scratch)
+        throws IOException {
+        int count = (int)(rightIndex - leftIndex + 1);
+        if (count < 2) {
+            return;
+        }
+        if (!bp.getSchema().sortsAsInt()) {
+            for (long i = leftIndex + 1; i <= rightIndex; i++) {
+                long key = bp.getSortKey(i);
+                for (long j = i; j > leftIndex && bp.getSortKey(j
+                    - 1) > key; j--) {
+                    bp.swapRecords(j - 1, j);
+                }
+            }
+            return;
+        }
+        // shifts the bytes after the key out of a record read as an int
+        int shift = Integer.SIZE - Byte.SIZE * bp.getSchema().keyWidth();
+        bp.readRecords(leftIndex, scratch, count);
+        boolean moved = false;
+        for (int i = 1; i < count; i++) {
+            int record = scratch[i];
+            int key = record >> shift;
+            int j = i - 1;
+            while (j >= 0 && scratch[j] >> shift > key) {
+                scratch[j + 1] = scratch[j];
+                j--;
+            }
+            if (j + 1 != i) {
+                scratch[j + 1] = record;
+                moved = true;
+            }
+        }
+        if (moved) {
+            bp.writeRecords(leftIndex, scratch, count);
+        }
+    }
+
+
+    /**
+     * Heapsorts a range in place through the pool. Slower than quicksort on
+     * typical data, but never worse than n log n.
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param leftIndex
+     *            - index of the first record
+     * @param rightIndex
+     *            - index of the last record
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void heapsort(BufferPool bp, long leftIndex, long rightIndex)
+        throws IOException {
+        long count = rightIndex - leftIndex + 1;
+        for (long i = count / 2 - 1; i >= 0; i--) {
+            siftDown(bp, leftIndex, i, count);
+        }
+        for (long end = count - 1; end > 0; end--) {
+            bp.swapRecords(leftIndex, leftIndex + end);
+            siftDown(bp, leftIndex, 0, end);
+        }
+    }
+
+
+    /**
+     * Moves a record down a max heap of keys until both its children are no
+     * bigger. Records that sort as ints move children up into the hole
+     * instead of being swapped; other records are swapped down.
+     * 
+     * @param bp
+     *            - buffer pool used to access values we need
+     * @param base
+     *            - index of the heap's root record
+     * @param slot
+     *            - heap position of the record to move down
+     * @param size
+     *            - records in the heap
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void siftDown(BufferPool bp, long base, long slot, long size)
+        throws IOException {
+        boolean asInt = bp.getSchema().sortsAsInt();
+        int record = asInt ? bp.getRecord(base + slot) : 0;
+        long key = bp.getSortKey(base + slot);
+        long start = slot;
+        while (true) {
+            long child = 2 * slot + 1;
+            if (child >= size) {
+                break;
+            }
+            long childKey = bp.getSortKey(base + child);
+            if (child + 1 < size) {
+                long rightKey = bp.getSortKey(base + child + 1);
+                if (rightKey > childKey) {
+                    child++;
+                    childKey = rightKey;
+                }
+            }
+            if (childKey <= key) {
+                break;
+            }
+            if (asInt) {
+                bp.setRecord(base + slot, bp.getRecord(base + child));
+            }
+            else {
+                bp.swapRecords(base + slot, base + child);
+            }
+            slot = child;
+        }
+        if (asInt && slot != start) {
+            bp.setRecord(base + slot, record);
+        }
     }
 
 
@@ -78,8 +612,8 @@ public class QuicksortSpecialized {
      *            - highest index
      * @return - returns the pivot in the middle
      */
-    public int findPivot(int lowest, int highest) {
-        return (lowest + highest) / 2;
+    public long findPivot(long lowest, long highest) {
+        return lowest + (highest - lowest) / 2;
     }
 
 
@@ -91,56 +625,59 @@ public class QuicksortSpecialized {
      * @return - short formed from the first two bytes
      */
     public short getKey(byte[] array) {
-        byteBuffer = ByteBuffer.wrap(array);
-        return byteBuffer.getShort();
+        return (short)((array[0] << 8) | (array[1] & 0xFF));
     }
 
 
     /**
+     * Moves every record with a key below the pivot to the left of the range
+     * and every other record to the right. Swaps are collected and done in
+     * batches, so the scans only ever read records between the two indexes,
+     * which no pending swap touches.
      * 
      * @param bp
      *            - buffer pool
      * @param leftIndex
      *            - current left index to be compared with the pivot
      * @param rightIndex
-     *            s * - current right index to be compared with the pivot
+     *            - current right index to be compared with the pivot
      * @param pivot
      *            - value to be compared in order to determine a swap
-     * @return Gives back an int that is the first position in the right set
+     * @return Gives back the first position in the right set
      * @throws IOException
      */
-    public int partition(
+    public long partition(
         BufferPool bp,
-        int leftIndex,
-        int rightIndex,
-        short pivot)
+        long leftIndex,
+        long rightIndex,
+        long pivot)
         throws IOException {
-        while (leftIndex <= rightIndex) { // Move bounds inward until they meet
-            byte[] leftBytes = bp.getBytes(leftIndex, RECORDSIZE);
-            short leftValue = getKey(leftBytes);
-            while (leftValue < pivot) {
+        int room = (int)Math.max(1, Math.min(SWAP_BATCH, (rightIndex
+            - leftIndex + 1) / 2));
+        long[] firsts = new long[room];
+        long[] seconds = new long[room];
+        int pending = 0;
+        while (true) { // Move bounds inward until they meet
+            while (leftIndex <= rightIndex && bp.getSortKey(
+                leftIndex) < pivot) {
                 leftIndex++;
-                if (leftIndex <= 1024) {
-                    leftBytes = bp.getBytes(leftIndex, RECORDSIZE);
-                    leftValue = getKey(leftBytes);
-                }
             }
-            byte[] rightBytes = bp.getBytes(rightIndex, RECORDSIZE);
-            short rightValue = getKey(rightBytes);
-
-            while ((rightIndex >= leftIndex) && (rightValue >= pivot)) {
+            while (rightIndex > leftIndex && bp.getSortKey(
+                rightIndex) >= pivot) {
                 rightIndex--;
-                if (rightIndex >= 0) {
-                    rightBytes = bp.getBytes(rightIndex, RECORDSIZE);
-                    rightValue = getKey(rightBytes);
-                }
             }
-            if (rightIndex > leftIndex) {
-                leftBytes = bp.getBytes(leftIndex, RECORDSIZE);
-                rightBytes = bp.getBytes(rightIndex, RECORDSIZE);
-                bp.swap(leftBytes, leftIndex, rightBytes, rightIndex, true);
-            } // Swap out-of-place values
+            if (rightIndex <= leftIndex) {
+                break;
+            }
+            // Swap out-of-place values
+            firsts[pending] = leftIndex++;
+            seconds[pending] = rightIndex--;
+            if (++pending == room) {
+                bp.swapRecords(firsts, seconds, pending);
+                pending = 0;
+            }
         }
+        bp.swapRecords(firsts, seconds, pending);
         return leftIndex; // Return first position in right partition
     }
 
@@ -1,4 +1,11 @@
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import student.TestCase;
 
 /**
@@ -6,6 +13,11 @@ import student.TestCase;
  * @version {Put Something Here}
  */
 public class QuicksortTest extends TestCase {
+    /**
+     * File the sorting tests generate, sort and check
+     */
+    private static final String SORTED = "sorted.txt";
+
     private CheckFile fileChecker;
 
     /**
@@ -15,6 +27,63 @@ public class QuicksortTest extends TestCase {
         fileChecker = new CheckFile();
     }
 
+    /**
+     * Removes the sorted file and the stat file the sorts append to
+     */
+    public void tearDown() {
+        new File(SORTED).delete();
+        new File("statFile.txt").delete();
+    }
+
+
+    /**
+     * Sorts the test file, appending its stats to the stat file
+     *
+     * @param buffers
+     *            - number of buffers
+     * @param options
+     *            - any options after the stat file
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    private void sort(String buffers, String... options)
+        throws Exception
+    {
+        String[] args = new String[3 + options.length];
+        args[0] = SORTED;
+        args[1] = buffers;
+        args[2] = "statFile.txt";
+        System.arraycopy(options, 0, args, 3, options.length);
+        Quicksort.main(args);
+    }
+
+
+    /**
+     * Generates a test file, sorts it and checks that it comes out sorted
+     *
+     * @param blocks
+     *            - size of the file in blocks
+     * @param type
+     *            - 'a' for an ascii file, 'b' for a binary one
+     * @param buffers
+     *            - number of buffers
+     * @param options
+     *            - any options after the stat file
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    private void assertSorts(
+        String blocks,
+        char type,
+        String buffers,
+        String... options)
+        throws Exception
+    {
+        Quicksort.generateFile(SORTED, blocks, type);
+        sort(buffers, options);
+        assertTrue(fileChecker.checkFile(SORTED));
+    }
+
     /**
      * This method is a demonstration of the file generator and file checker
      * functionality. It calles generateFile to create a small "ascii" file.
@@ -38,6 +107,285 @@ public class QuicksortTest extends TestCase {
         assertFalse(fileChecker.checkFile("input.txt"));
     }
 
+    /**
+     * Sorts an ascii and a binary file through a small pool and checks that
+     * both come out sorted
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testSortsFile()
+        throws Exception
+    {
+        assertSorts("10", 'a', "3");
+        assertSorts("10", 'b', "4");
+        assertSorts("10", 'b', "2", "--backend", "mmap");
+    }
+
+    /**
+     * Sorts files with the external merge sort, both when the runs need an
+     * odd and an even number of merge passes
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testMergeSort()
+        throws Exception
+    {
+        // 40 blocks in 4 block runs is 10 runs: 3 passes merging 3 at once
+        assertSorts("40", 'b', "4", "--algorithm", "merge");
+        assertEquals(3, ExternalMergeSort.passes(10, 3));
+
+        // 3 buffers make 14 runs and merge 2 at a time: 4 passes
+        assertSorts("40", 'a', "3", "--algorithm", "merge");
+        assertEquals(4, ExternalMergeSort.passes(14, 2));
+
+        assertSorts("3", 'b', "20", "--algorithm", "merge");
+    }
+
+    /**
+     * Sorts a file on several threads sharing one pool
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testParallelSort()
+        throws Exception
+    {
+        assertSorts("64", 'b', "8", "--threads", "4");
+    }
+
+    /**
+     * Sorts a file by counting keys instead of comparing them, and sorts it
+     * again once it is already in order
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testCountingSort()
+        throws Exception
+    {
+        assertSorts("40", 'b', "4", "--algorithm", "counting");
+        sort("4", "--algorithm", "counting", "--backend", "mmap");
+        assertTrue(fileChecker.checkFile(SORTED));
+    }
+
+    /**
+     * Sorts an index of the keys in memory and then moves each record into
+     * place, for the default layout, for ranges cut down to fit a small
+     * pool and for wide little endian records
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testIndexSort()
+        throws Exception
+    {
+        assertSorts("40", 'b', "4", "--algorithm", "index");
+        assertSorts("40", 'b', "4", "--algorithm", "index", "--threads", "2",
+            "--backend", "mmap");
+        // one buffer holds fewer records than a 256th of the file, so the
+        // ranges shrink to fit it and there are more of them
+        assertSorts("300", 'b', "1", "--algorithm", "index");
+
+        byte[] data = new byte[16 * 5000];
+        new Random(3114).nextBytes(data);
+        long sum = 0;
+        for (byte b : data) {
+            sum += b;
+        }
+        Files.write(new File(SORTED).toPath(), data);
+        sort("4", "--algorithm", "index", "--record-size", "16",
+            "--key-offset", "4", "--key-type", "uint", "--byte-order",
+            "little");
+        data = Files.readAllBytes(new File(SORTED).toPath());
+        ByteBuffer records = ByteBuffer.wrap(data).order(
+            ByteOrder.LITTLE_ENDIAN);
+        for (int i = 1; i < 5000; i++) {
+            assertTrue(Integer.compareUnsigned(records.getInt(i * 16 - 12),
+                records.getInt(i * 16 + 4)) <= 0);
+        }
+        for (byte b : data) {
+            sum -= b;
+        }
+        assertEquals(0, sum);
+    }
+
+    /**
+     * Splits the records into bucket files by key, sorts the buckets on
+     * several threads and copies them back, with the buckets next to the
+     * file, spread over two directories, and holding 8 byte keys
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testSampleSort()
+        throws Exception
+    {
+        assertSorts("40", 'b', "8", "--algorithm", "sample", "--threads",
+            "3");
+
+        File first = Files.createTempDirectory("bucketsA").toFile();
+        File second = Files.createTempDirectory("bucketsB").toFile();
+        assertSorts("40", 'b', "8", "--algorithm", "sample", "--threads",
+            "2", "--bucket-dirs", first.getPath() + "," + second.getPath());
+        assertEquals(0, first.list().length);
+        assertEquals(0, second.list().length);
+        first.delete();
+        second.delete();
+
+        byte[] data = new byte[16 * 5000];
+        new Random(2718).nextBytes(data);
+        long sum = 0;
+        for (byte b : data) {
+            sum += b;
+        }
+        Files.write(new File(SORTED).toPath(), data);
+        sort("4", "--algorithm", "sample", "--threads", "2", "--record-size",
+            "16", "--key-offset", "8", "--key-type", "long");
+        data = Files.readAllBytes(new File(SORTED).toPath());
+        ByteBuffer records = ByteBuffer.wrap(data);
+        for (int i = 1; i < 5000; i++) {
+            assertTrue(records.getLong(i * 16 - 8) <= records.getLong(i * 16
+                + 8));
+        }
+        for (byte b : data) {
+            sum -= b;
+        }
+        assertEquals(0, sum);
+    }
+
+    /**
+     * A sort that fails once the pool is running still takes the stats off
+     * JMX and stops the pool's threads
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testFailedSortCleansUp()
+        throws Exception
+    {
+        Files.write(new File("failed.txt").toPath(), new byte[16 * 1000]);
+        try {
+            Quicksort.main(new String[] {"failed.txt", "4", "statFile.txt",
+                "--algorithm", "index", "--record-size", "16", "--key-type",
+                "long", "--prefetch", "2"});
+            fail("indexed 8 byte keys");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("4 bytes"));
+        }
+        PoolStats stats = new PoolStats();
+        assertTrue(stats.register());
+        stats.unregister();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("BufferPool")) {
+                // a stopped thread may still be on its way out
+                thread.join(5000);
+                assertFalse(thread.isAlive());
+            }
+        }
+        assertTrue(new File("failed.txt").delete());
+    }
+
+    /**
+     * Streams the sorted records to a new file and leaves the input as it
+     * was, both when the input fits in one run and when it takes several
+     * merge passes, and refuses options the streaming sort would ignore
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testStreamedOutput()
+        throws Exception
+    {
+        Quicksort.generateFile(SORTED, "40", 'b');
+        byte[] before = Files.readAllBytes(new File(SORTED).toPath());
+        for (String buffers : new String[] {"40", "2"}) {
+            new File("streamOut.txt").delete();
+            sort(buffers, "--output", "streamOut.txt");
+            assertTrue(fileChecker.checkFile("streamOut.txt"));
+            assertEquals(before.length, new File("streamOut.txt").length());
+        }
+        assertTrue(Arrays.equals(before, Files.readAllBytes(
+            new File(SORTED).toPath())));
+        new File("streamOut.txt").delete();
+        assertEquals("out.txt", SortOptions.parse(new String[] {"in.txt",
+            "4", "--algorithm", "merge", "--output", "out.txt"})
+            .getOutputFilename());
+        String[][] ignored = {{"--threads", "4"}, {"--backend", "mmap"},
+            {"--algorithm", "index"}, {"--algorithm", "quicksort"}};
+        for (String[] option : ignored) {
+            try {
+                SortOptions.parse(new String[] {"in.txt", "4", option[0],
+                    option[1], "--output", "out.txt"});
+                fail("streamed with " + option[0] + " " + option[1]);
+            }
+            catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("--output"));
+            }
+        }
+    }
+
+    /**
+     * Every sort appends one JSON line of stats to the stat file
+     *
+     * @throws Exception
+     *             either a IOException or FileNotFoundException
+     */
+    public void testStatFile()
+        throws Exception
+    {
+        File statFile = new File("stats.json");
+        statFile.delete();
+        Quicksort.generateFile("stats.txt", "20", 'b');
+        Quicksort.main(new String[] {"stats.txt", "4", "stats.json"});
+        Quicksort.generateFile("stats.txt", "20", 'b');
+        Quicksort.main(new String[] {"stats.txt", "4", "stats.json",
+            "--algorithm", "merge"});
+        List<String> lines = Files.readAllLines(statFile.toPath());
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"time\":"));
+        assertTrue(lines.get(0).contains("\"misses\":"));
+        assertTrue(lines.get(0).contains("\"sort\":"));
+        assertTrue(lines.get(1).contains("\"merge\":"));
+        assertTrue(lines.get(1).contains("\"bytesWritten\":"));
+        statFile.delete();
+        new File("stats.txt").delete();
+    }
+
+    /**
+     * Checks that the pool can be sized by a memory budget instead of a
+     * buffer count, and that sizes take k, m and g suffixes
+     */
+    public void testPoolMemoryOptions() {
+        String[] args = {"test.txt", "--pool-memory", "512m",
+            "--block-size", "64k"};
+        SortOptions options = SortOptions.parse(args);
+        assertEquals(64 * 1024, options.getBlockSize());
+        assertEquals(8192, options.getNumBuffers());
+        assertEquals(3L << 30, SortOptions.parseSize("3g"));
+        assertEquals(100, SortOptions.parse(
+            new String[] {"test.txt", "100"}).getNumBuffers());
+        try {
+            BufferPool.buffersForMemory(1024, 3000);
+            fail("block size must be a power of two");
+        }
+        catch (IllegalArgumentException e) {
+            assertNotNull(e.getMessage());
+        }
+        for (String size : new String[] {"1000", "5000", "2k", "2m"}) {
+            try {
+                SortOptions.parse(new String[] {"test.txt", "--block-size",
+                    size});
+                fail("accepted a block size of " + size);
+            }
+            catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("Block size"));
+            }
+        }
+    }
+
     /**
      * Get code coverage of the class declaration.
      * @throws IOException 
@@ -0,0 +1,165 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the records in a file: how big each record is and where its
+ * key sits, how wide the key is, whether it is signed and which byte order
+ * it is stored in. A key is read straight out of a buffer into a long that
+ * orders the same way the key does, so sorts compare plain longs whatever
+ * the layout.
+ *
+ * Record sizes are powers of two no bigger than the smallest block, so
+ * every block holds a whole number of records and no record is ever split
+ * between two buffers.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class RecordSchema {
+
+    /**
+     * The project's own layout: 4 byte records starting with a signed big
+     * endian 2 byte key
+     */
+    public static final RecordSchema DEFAULT = new RecordSchema(4, 0, 2,
+        false, ByteOrder.BIG_ENDIAN);
+
+    private final int size;
+    private final int keyOffset;
+    private final int keyWidth;
+    private final boolean unsigned;
+    private final boolean littleEndian;
+
+    /**
+     * Creates a layout
+     *
+     * @param recordSize
+     *            - bytes per record, a power of two from 4 to
+     *            BufferPool.MIN_BLOCK_SIZE
+     * @param offset
+     *            - where the key starts within the record
+     * @param width
+     *            - bytes in the key: 2, 4 or 8
+     * @param unsignedKey
+     *            - true if the key is unsigned
+     * @param order
+     *            - byte order the key is stored in
+     * @throws IllegalArgumentException
+     *             - if the key does not fit in the record or a size is not
+     *             allowed
+     */
+    public RecordSchema(
+        int recordSize,
+        int offset,
+        int width,
+        boolean unsignedKey,
+        ByteOrder order) {
+        if (recordSize < 4 || recordSize > BufferPool.MIN_BLOCK_SIZE
+            || Integer.bitCount(recordSize) != 1) {
+            throw new IllegalArgumentException(
+                "Record size must be a power of two from 4 to "
+                    + BufferPool.MIN_BLOCK_SIZE + ", got " + recordSize);
+        }
+        if (width != 2 && width != 4 && width != 8) {
+            throw new IllegalArgumentException(
+                "Key width must be 2, 4 or 8, got " + width);
+        }
+        if (offset < 0 || offset + width > recordSize) {
+            throw new IllegalArgumentException("A " + width
+                + " byte key at offset " + offset + " does not fit in a "
+                + recordSize + " byte record");
+        }
+        size = recordSize;
+        keyOffset = offset;
+        keyWidth = width;
+        unsigned = unsignedKey;
+        littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+    }
+
+
+    /**
+     * Gets the size of a record
+     *
+     * @return bytes per record
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Gets where the key starts within a record
+     *
+     * @return key offset in bytes
+     */
+    public int keyOffset() {
+        return keyOffset;
+    }
+
+
+    /**
+     * Gets the width of the key
+     *
+     * @return key width in bytes
+     */
+    public int keyWidth() {
+        return keyWidth;
+    }
+
+
+    /**
+     * Tells whether a whole record read as a big endian int orders the same
+     * way its key does. The sorts then move records around as plain ints.
+     *
+     * @return true for 4 byte records led by a signed big endian key
+     */
+    public boolean sortsAsInt() {
+        return size == 4 && keyOffset == 0 && !unsigned && !littleEndian;
+    }
+
+
+    /**
+     * Tells whether this is the project's own layout
+     *
+     * @return true if records are laid out like DEFAULT
+     */
+    public boolean isDefault() {
+        return sortsAsInt() && keyWidth == 2;
+    }
+
+
+    /**
+     * Reads the key of a record as a long that orders like the key. Signed
+     * keys are sign extended, unsigned keys narrower than a long are zero
+     * extended, and an unsigned long has its top bit flipped.
+     *
+     * @param data
+     *            - big endian buffer holding the record
+     * @param start
+     *            - position of the record in the buffer
+     * @return key to compare as a signed long
+     */
+    public long key(ByteBuffer data, int start) {
+        int at = start + keyOffset;
+        if (keyWidth == 2) {
+            short key = data.getShort(at);
+            if (littleEndian) {
+                key = Short.reverseBytes(key);
+            }
+            return unsigned ? key & 0xFFFF : key;
+        }
+        if (keyWidth == 4) {
+            int key = data.getInt(at);
+            if (littleEndian) {
+                key = Integer.reverseBytes(key);
+            }
+            return unsigned ? key & 0xFFFFFFFFL : key;
+        }
+        long key = data.getLong(at);
+        if (littleEndian) {
+            key = Long.reverseBytes(key);
+        }
+        return unsigned ? key ^ Long.MIN_VALUE : key;
+    }
+
+}
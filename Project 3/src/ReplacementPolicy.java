@@ -0,0 +1,120 @@
+import java.util.function.IntPredicate;
+
+/**
+ * Decides which buffer a pool throws out when it needs room for a new block.
+ * A policy only sees slot numbers, 0 up to the capacity it was made with,
+ * and the block IDs loaded into them; the pool keeps the buffers themselves.
+ * Policies are not thread safe, the pool calls them with its lock held.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Names accepted by create, in the order reports list them
+     */
+    String[] NAMES = {"lru", "clock", "2q", "arc", "lru2"};
+
+    /**
+     * Most slots a policy looks at for a preferred one before it falls back
+     * to the slot it would throw out anyway, so a miss costs the same
+     * however big the pool is
+     */
+    int PREFERRED_WINDOW = 8;
+
+
+    /**
+     * Tells the policy a block was just loaded into a free slot
+     *
+     * @param slot
+     *            - slot the block went into
+     * @param blockID
+     *            - id of the block
+     */
+    void insert(int slot, long blockID);
+
+
+    /**
+     * Tells the policy a block already in a slot was used again
+     *
+     * @param slot
+     *            - slot that was used
+     */
+    void access(int slot);
+
+
+    /**
+     * Picks a slot to empty and forgets it. Every slot must be filled.
+     *
+     * @param incoming
+     *            - id of the block that needs the room
+     * @param evictable
+     *            - tells whether a slot may be thrown out right now
+     * @return slot to empty, -1 if no slot may be thrown out
+     */
+    default int victim(long incoming, IntPredicate evictable) {
+        return victim(incoming, evictable, evictable);
+    }
+
+
+    /**
+     * Picks a slot to empty and forgets it, taking a preferred slot among
+     * the PREFERRED_WINDOW it would throw out first over any other. The
+     * policy's state moves
+     * once for the miss however many slots it had to look at, and not at
+     * all when it returns -1, so a caller may simply ask again later. Every
+     * slot must be filled.
+     *
+     * @param incoming
+     *            - id of the block that needs the room
+     * @param preferred
+     *            - tells whether a slot is cheap to throw out, only tested
+     *            on slots that are evictable
+     * @param evictable
+     *            - tells whether a slot may be thrown out right now
+     * @return slot to empty, -1 if no slot may be thrown out
+     */
+    int victim(long incoming, IntPredicate preferred, IntPredicate evictable);
+
+
+    /**
+     * Forgets a slot without counting it as an eviction, used when a block
+     * could not be read after all
+     *
+     * @param slot
+     *            - slot to forget
+     */
+    void remove(int slot);
+
+
+    /**
+     * Makes a policy by name
+     *
+     * @param name
+     *            - one of NAMES
+     * @param capacity
+     *            - number of slots
+     * @return the new policy
+     */
+    static ReplacementPolicy create(String name, int capacity) {
+        if (name.equals("lru")) {
+            return new LruPolicy(capacity);
+        }
+        if (name.equals("clock")) {
+            return new ClockPolicy(capacity);
+        }
+        if (name.equals("2q")) {
+            return new TwoQueuePolicy(capacity);
+        }
+        if (name.equals("arc")) {
+            return new ArcPolicy(capacity);
+        }
+        if (name.equals("lru2")) {
+            return new LruKPolicy(capacity);
+        }
+        throw new IllegalArgumentException("Unknown replacement policy "
+            + name);
+    }
+
+}
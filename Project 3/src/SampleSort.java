@@ -0,0 +1,413 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sample sort across bucket files. A few random keys are read and sorted
+ * to pick splitters, then one pass streams the file and appends every
+ * record to the bucket file for its range of keys. The buckets are sorted
+ * at the same time on separate threads, each through a buffer pool of its
+ * own, so no lock or file is shared between them, and are then copied back
+ * into the file one after another. Bucket files can be spread over several
+ * directories, say one per disk, so the threads do not all wait on the
+ * same one.
+ *
+ * Each bucket's pool gets an even share of the buffers. Records are only
+ * split by key, so a key that fills most of the file fills most of one
+ * bucket too.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class SampleSort {
+
+    /**
+     * Buckets made per thread, so a thread that finishes a small bucket
+     * early can take another
+     */
+    public static final int BUCKETS_PER_THREAD = 4;
+
+    /**
+     * Keys sampled per bucket to pick the splitters
+     */
+    public static final int SAMPLES_PER_BUCKET = 64;
+
+    /**
+     * Most bytes copied back from a bucket in one transfer
+     */
+    private static final int MAX_TRANSFER = 1 << 26;
+
+    private int threads;
+    private int numBuffers;
+    private int blockSize;
+    private RecordSchema schema;
+    private QuicksortSpecialized sorter;
+    private File[] directories;
+    private PoolStats stats;
+
+    /**
+     * Creates a sample sort
+     *
+     * @param numThreads
+     *            - buckets sorted at once
+     * @param numbBuffers
+     *            - buffers shared out between the pools sorting at once
+     * @param blockBytes
+     *            - size of each block in bytes
+     * @param recordSchema
+     *            - layout of the records
+     * @param sequential
+     *            - sort used on each bucket
+     */
+    public SampleSort(
+        int numThreads,
+        int numbBuffers,
+        int blockBytes,
+        RecordSchema recordSchema,
+        QuicksortSpecialized sequential) {
+        threads = numThreads;
+        numBuffers = numbBuffers;
+        blockSize = blockBytes;
+        schema = recordSchema;
+        sorter = sequential;
+        stats = new PoolStats();
+    }
+
+
+    /**
+     * Sets where the bucket files go. Bucket i goes in directory i modulo
+     * their number.
+     *
+     * @param bucketDirectories
+     *            - directories to spread the buckets over, null to put them
+     *            next to the file being sorted
+     */
+    public void setDirectories(File[] bucketDirectories) {
+        directories = bucketDirectories;
+    }
+
+
+    /**
+     * Gets the counters for this sort. The pools sorting the buckets are
+     * added in as each one finishes.
+     *
+     * @return stats for the streaming passes and every bucket's pool
+     */
+    public PoolStats getStats() {
+        return stats;
+    }
+
+
+    /**
+     * Sorts every record in a file
+     *
+     * @param file
+     *            - file to sort, open for reading and writing
+     * @param path
+     *            - name of the file, used to place the bucket files unless
+     *            directories were set
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    public void sort(RandomAccessFile file, String path) throws IOException {
+        FileChannel input = file.getChannel();
+        long numRecords = input.size() / schema.size();
+        if (numRecords < 2) {
+            return;
+        }
+        int numBuckets = (int)Math.min(numRecords, Math.max(2, threads
+            * BUCKETS_PER_THREAD));
+        long start = System.nanoTime();
+        long[] splitters = splitters(input, numRecords, numBuckets);
+        stats.phase("sample", System.nanoTime() - start);
+
+        File[] places = directories;
+        if (places == null || places.length == 0) {
+            places = new File[] {new File(path).getAbsoluteFile()
+                .getParentFile()};
+        }
+        File[] bucketFiles = new File[numBuckets];
+        RandomAccessFile[] buckets = new RandomAccessFile[numBuckets];
+        try {
+            for (int b = 0; b < numBuckets; b++) {
+                bucketFiles[b] = File.createTempFile("bucket", ".tmp",
+                    places[b % places.length]);
+                buckets[b] = new RandomAccessFile(bucketFiles[b], "rw");
+            }
+            start = System.nanoTime();
+            scatter(input, numRecords, splitters, buckets);
+            stats.phase("scatter", System.nanoTime() - start);
+            start = System.nanoTime();
+            sortBuckets(buckets);
+            stats.phase("sort", System.nanoTime() - start);
+            start = System.nanoTime();
+            concatenate(buckets, input);
+            stats.phase("concatenate", System.nanoTime() - start);
+        }
+        finally {
+            for (int b = 0; b < numBuckets; b++) {
+                if (buckets[b] != null) {
+                    buckets[b].close();
+                }
+                if (bucketFiles[b] != null) {
+                    bucketFiles[b].delete();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Reads the keys of randomly chosen records and picks evenly spaced
+     * ones among them to split the buckets by
+     *
+     * @param input
+     *            - file to sort
+     * @param numRecords
+     *            - records in the file
+     * @param numBuckets
+     *            - buckets to split into
+     * @return the smallest key of every bucket but the first, in order
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private long[] splitters(
+        FileChannel input,
+        long numRecords,
+        int numBuckets)
+        throws IOException {
+        int count = (int)Math.min(numRecords, (long)numBuckets
+            * SAMPLES_PER_BUCKET);
+        long[] samples = new long[count];
+        ByteBuffer record = ByteBuffer.allocateDirect(schema.size());
+        Random random = new Random(numRecords);
+        for (int i = 0; i < count; i++) {
+            long index = (long)(random.nextDouble() * numRecords);
+            record.clear();
+            long begin = System.nanoTime();
+            FileBlockStore.readFully(input, record, index * schema.size());
+            stats.read(schema.size(), System.nanoTime() - begin);
+            samples[i] = schema.key(record, 0);
+        }
+        Arrays.sort(samples);
+        long[] splitters = new long[numBuckets - 1];
+        for (int b = 1; b < numBuckets; b++) {
+            splitters[b - 1] = samples[(int)((long)b * count / numBuckets)];
+        }
+        return splitters;
+    }
+
+
+    /**
+     * Reads the file from start to end and appends each record to the
+     * bucket for its key. Each bucket's records are gathered into a block
+     * before they are written.
+     *
+     * @param input
+     *            - file to sort
+     * @param numRecords
+     *            - records in the file
+     * @param splitters
+     *            - smallest key of every bucket but the first
+     * @param buckets
+     *            - empty bucket files
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void scatter(
+        FileChannel input,
+        long numRecords,
+        long[] splitters,
+        RandomAccessFile[] buckets)
+        throws IOException {
+        int size = schema.size();
+        ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+        ByteBuffer[] staged = new ByteBuffer[buckets.length];
+        long[] written = new long[buckets.length];
+        for (int b = 0; b < buckets.length; b++) {
+            staged[b] = ByteBuffer.allocateDirect(blockSize);
+        }
+        long length = numRecords * size;
+        for (long position = 0; position < length; position += blockSize) {
+            int bytes = (int)Math.min(blockSize, length - position);
+            block.clear().limit(bytes);
+            long begin = System.nanoTime();
+            FileBlockStore.readFully(input, block, position);
+            stats.read(bytes, System.nanoTime() - begin);
+            for (int spot = 0; spot < bytes; spot += size) {
+                int b = bucketOf(splitters, schema.key(block, spot));
+                ByteBuffer stage = staged[b];
+                stage.put(stage.position(), block, spot, size);
+                stage.position(stage.position() + size);
+                if (!stage.hasRemaining()) {
+                    written[b] += flush(stage, buckets[b], written[b]);
+                }
+            }
+        }
+        for (int b = 0; b < buckets.length; b++) {
+            written[b] += flush(staged[b], buckets[b], written[b]);
+        }
+    }
+
+
+    /**
+     * Writes what is gathered for a bucket to the end of its file
+     *
+     * @param stage
+     *            - gathered records, written from the start to the position
+     * @param bucket
+     *            - bucket file
+     * @param position
+     *            - bytes already in the bucket file
+     * @return bytes written
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private int flush(ByteBuffer stage, RandomAccessFile bucket, long position)
+        throws IOException {
+        int bytes = stage.flip().remaining();
+        if (bytes > 0) {
+            long begin = System.nanoTime();
+            FileBlockStore.writeFully(bucket.getChannel(), stage, position);
+            stats.write(bytes, System.nanoTime() - begin);
+        }
+        stage.clear();
+        return bytes;
+    }
+
+
+    /**
+     * Finds the bucket for a key: the last one whose smallest key is no
+     * bigger than it
+     *
+     * @param splitters
+     *            - smallest key of every bucket but the first, in order
+     * @param key
+     *            - key of a record
+     * @return bucket number
+     */
+    private static int bucketOf(long[] splitters, long key) {
+        int low = 0;
+        int high = splitters.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key < splitters[mid]) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Sorts every bucket, as many at once as there are threads, each
+     * through a pool of its own
+     *
+     * @param buckets
+     *            - filled bucket files
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void sortBuckets(RandomAccessFile[] buckets) throws IOException {
+        int share = Math.max(1, numBuffers / threads);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> sorts = new ArrayList<Future<?>>();
+            for (RandomAccessFile bucket : buckets) {
+                sorts.add(workers.submit(() -> {
+                    sortBucket(bucket, share);
+                    return null;
+                }));
+            }
+            for (Future<?> sort : sorts) {
+                sort.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted sorting the buckets", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Sorts one bucket file through a pool of its own, which is closed even
+     * when the sort fails
+     *
+     * @param bucket
+     *            - bucket file
+     * @param buffers
+     *            - buffers for its pool
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void sortBucket(RandomAccessFile bucket, int buffers)
+        throws IOException {
+        if (bucket.length() < 2L * schema.size()) {
+            return;
+        }
+        try (BufferPool bp = new BufferPool(buffers, 1,
+            BufferPool.DEFAULT_POLICY, schema, new FileBlockStore(bucket,
+                blockSize))) {
+            sorter.quicksort(bp, 0, bp.getNumRecords() - 1);
+            // close before taking the stats so they count the last writes
+            bp.close();
+            stats.add(bp.getStats());
+        }
+    }
+
+
+    /**
+     * Copies the sorted buckets back over the file, in bucket order
+     *
+     * @param buckets
+     *            - sorted bucket files
+     * @param output
+     *            - file being sorted
+     * @throws IOException
+     *             - throws an exception on a bad file
+     */
+    private void concatenate(RandomAccessFile[] buckets, FileChannel output)
+        throws IOException {
+        long position = 0;
+        for (RandomAccessFile bucket : buckets) {
+            FileChannel from = bucket.getChannel();
+            long length = from.size();
+            from.position(0);
+            for (long done = 0; done < length;) {
+                long begin = System.nanoTime();
+                long moved = output.transferFrom(from, position + done, Math
+                    .min(length - done, MAX_TRANSFER));
+                stats.write((int)moved, System.nanoTime() - begin);
+                done += moved;
+            }
+            position += length;
+        }
+    }
+
+}
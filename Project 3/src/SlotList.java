@@ -0,0 +1,138 @@
+import java.util.function.IntPredicate;
+
+/**
+ * Doubly linked list of slot numbers kept in int arrays, so moving a slot
+ * around never allocates. Several lists can share the same link arrays as
+ * long as a slot is in at most one of them at a time.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class SlotList {
+
+    private int[] prev;
+    private int[] next;
+    private int head;
+    private int tail;
+    private int size;
+
+    /**
+     * Creates an empty list over shared link arrays
+     *
+     * @param prevLinks
+     *            - link to the slot nearer the head, one entry per slot
+     * @param nextLinks
+     *            - link to the slot nearer the tail, one entry per slot
+     */
+    public SlotList(int[] prevLinks, int[] nextLinks) {
+        prev = prevLinks;
+        next = nextLinks;
+        head = -1;
+        tail = -1;
+        size = 0;
+    }
+
+
+    /**
+     * Puts a slot at the head of the list
+     *
+     * @param slot
+     *            - slot that is in no list
+     */
+    public void addFirst(int slot) {
+        prev[slot] = -1;
+        next[slot] = head;
+        if (head >= 0) {
+            prev[head] = slot;
+        }
+        head = slot;
+        if (tail < 0) {
+            tail = slot;
+        }
+        size++;
+    }
+
+
+    /**
+     * Takes a slot out of the list
+     *
+     * @param slot
+     *            - slot in this list
+     */
+    public void remove(int slot) {
+        if (prev[slot] < 0) {
+            head = next[slot];
+        }
+        else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] < 0) {
+            tail = prev[slot];
+        }
+        else {
+            prev[next[slot]] = prev[slot];
+        }
+        prev[slot] = -1;
+        next[slot] = -1;
+        size--;
+    }
+
+
+    /**
+     * Moves a slot in this list to its head
+     *
+     * @param slot
+     *            - slot in this list
+     */
+    public void moveToFront(int slot) {
+        if (slot != head) {
+            remove(slot);
+            addFirst(slot);
+        }
+    }
+
+
+    /**
+     * Finds the slot nearest the tail that may be thrown out
+     *
+     * @param evictable
+     *            - tells whether a slot may be thrown out
+     * @return that slot, -1 if there is none
+     */
+    public int lastMatching(IntPredicate evictable) {
+        return lastMatching(evictable, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Finds the slot nearest the tail that matches, looking at no more than
+     * a given number of slots
+     *
+     * @param matching
+     *            - tells whether a slot may be picked
+     * @param limit
+     *            - most slots to look at, counted from the tail
+     * @return that slot, -1 if none of them match
+     */
+    public int lastMatching(IntPredicate matching, int limit) {
+        int looked = 0;
+        for (int slot = tail; slot >= 0 && looked < limit; slot = prev[slot]) {
+            if (matching.test(slot)) {
+                return slot;
+            }
+            looked++;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Gets the number of slots in the list
+     *
+     * @return size of the list
+     */
+    public int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,659 @@
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses and holds the command line settings for a sort. The first argument
+ * is always the file to sort, optionally followed by the number of buffers
+ * and the stat file name, then any of these options:
+ *
+ * <pre>
+ *   --pool-memory SIZE   size the pool by a byte budget, e.g. 512m
+ *   --block-size SIZE    bytes per block, a power of two from 4k to 1m
+ *   --backend NAME       file (seek, read and write) or mmap
+ *   --algorithm NAME     quicksort through the pool, merge, counting,
+ *                        index (sort the keys in memory, move records once)
+ *                        or sample (split into bucket files by key and sort
+ *                        one per thread)
+ *   --threads N          worker threads for quicksort
+ *   --stripes N          lock stripes in the pool, default 4 per thread
+ *   --policy NAME        buffer replacement: lru, clock, 2q, arc or lru2
+ *   --trace FILE         record every block the pool is asked for
+ *   --replay FILE        replay a recorded trace through every policy and
+ *                        report hit rates instead of sorting
+ *   --write-behind PCT   start writing dirty buffers in the background once
+ *                        this percent of the pool is dirty, 0 turns it off
+ *   --prefetch N         blocks to read ahead of sequential scans, 0 for none
+ *   --partition NAME     quicksort partitioning: three (gathers equal keys,
+ *                        the default) or two
+ *   --batch-memory SIZE  heap for sorting ranges that fit in it in memory
+ *                        instead of through the pool, off by default
+ *   --output FILE        leave the input alone and stream the sorted records
+ *                        to FILE, or to standard output for -, using the
+ *                        merge sort, so only the sizes and the stat file
+ *                        go with it
+ *   --record-size N      bytes per record, a power of two, default 4
+ *   --key-offset N       where the key starts in a record, default 0
+ *   --key-type NAME      short, int, long, or ushort, uint, ulong for
+ *                        unsigned keys, default short
+ *   --byte-order NAME    big (the default) or little
+ *   --bucket-dirs DIRS   comma separated directories to spread the sample
+ *                        sort's bucket files over, default next to the file
+ * </pre>
+ *
+ * Sizes take an optional k, m or g suffix (powers of 1024). The merge and
+ * counting sorts read records as packed 4 byte ints, so only quicksort in
+ * place, the index sort and the sample sort handle other record layouts.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class SortOptions {
+
+    /**
+     * Describes how to call the program
+     */
+    public static final String USAGE = "Usage: Quicksort <file> "
+        + "[numBuffers] [statFile] [--pool-memory SIZE] [--block-size SIZE] "
+        + "[--backend file|mmap] "
+        + "[--algorithm quicksort|merge|counting|index|sample] "
+        + "[--threads N] [--stripes N] [--policy NAME] [--trace FILE] "
+        + "[--replay FILE] [--write-behind PCT] [--prefetch N] "
+        + "[--partition three|two] [--batch-memory SIZE] "
+        + "[--output FILE|-] [--record-size N] [--key-offset N] "
+        + "[--key-type short|int|long|ushort|uint|ulong] "
+        + "[--byte-order big|little] [--bucket-dirs DIR,...]";
+
+    /**
+     * Options that do nothing when the sorted records are streamed out
+     */
+    private static final String[] NOT_STREAMED = {"--backend", "--threads",
+        "--stripes", "--policy", "--trace", "--replay", "--write-behind",
+        "--prefetch", "--partition", "--batch-memory", "--bucket-dirs"};
+
+    /**
+     * Backend that reads and writes blocks through a random access file
+     */
+    public static final String BACKEND_FILE = "file";
+
+    /**
+     * Backend that memory maps the file
+     */
+    public static final String BACKEND_MMAP = "mmap";
+
+    /**
+     * Quicksort every record in place through the buffer pool
+     */
+    public static final String ALGORITHM_QUICKSORT = "quicksort";
+
+    /**
+     * External merge sort of pool sized runs
+     */
+    public static final String ALGORITHM_MERGE = "merge";
+
+    /**
+     * Distribution sort by key through the pool
+     */
+    public static final String ALGORITHM_COUNTING = "counting";
+
+    /**
+     * Sort an index of keys in memory, then move each record once
+     */
+    public static final String ALGORITHM_INDEX = "index";
+
+    /**
+     * Split into bucket files by sampled key ranges and sort them at once
+     */
+    public static final String ALGORITHM_SAMPLE = "sample";
+
+    /**
+     * Output name that means standard output
+     */
+    public static final String STANDARD_OUTPUT = "-";
+
+    /**
+     * Quicksort partition that gathers keys equal to the pivot
+     */
+    public static final String PARTITION_THREE_WAY = "three";
+
+    /**
+     * Quicksort partition that only splits around the pivot
+     */
+    public static final String PARTITION_TWO_WAY = "two";
+
+    /**
+     * Key types in order of width, signed then unsigned
+     */
+    public static final String[] KEY_TYPES = { "short", "int", "long",
+        "ushort", "uint", "ulong" };
+
+    private String filename;
+    private String statFilename;
+    private int numBuffers;
+    private long poolMemory;
+    private int blockSize;
+    private String backend;
+    private String algorithm;
+    private int threads;
+    private int stripes;
+    private String policy;
+    private String traceFilename;
+    private String replayFilename;
+    private int writeBehind;
+    private int prefetch;
+    private String partition;
+    private long batchMemory;
+    private String outputFilename;
+    private int recordSize;
+    private int keyOffset;
+    private String keyType;
+    private ByteOrder byteOrder;
+    private File[] bucketDirectories;
+
+    /**
+     * Percent of the pool that may be dirty before write-behind starts
+     */
+    public static final int DEFAULT_WRITE_BEHIND = 25;
+
+    /**
+     * Blocks read ahead of a sequential scan
+     */
+    public static final int DEFAULT_PREFETCH = 4;
+
+    /**
+     * Creates options with the defaults and no file
+     */
+    public SortOptions() {
+        numBuffers = -1;
+        poolMemory = -1;
+        blockSize = BufferPool.DEFAULT_BLOCK_SIZE;
+        backend = BACKEND_FILE;
+        algorithm = ALGORITHM_QUICKSORT;
+        threads = 1;
+        stripes = -1;
+        policy = BufferPool.DEFAULT_POLICY;
+        writeBehind = DEFAULT_WRITE_BEHIND;
+        prefetch = DEFAULT_PREFETCH;
+        partition = PARTITION_THREE_WAY;
+        recordSize = RecordSchema.DEFAULT.size();
+        keyType = KEY_TYPES[0];
+        byteOrder = ByteOrder.BIG_ENDIAN;
+    }
+
+
+    /**
+     * Parses the command line
+     *
+     * @param args
+     *            - command line parameters
+     * @return the parsed options
+     * @throws IllegalArgumentException
+     *             - if the arguments are missing or malformed
+     */
+    public static SortOptions parse(String[] args) {
+        SortOptions options = new SortOptions();
+        List<String> given = new ArrayList<String>();
+        int positional = 0;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException(arg + " needs a value");
+                }
+                options.setOption(arg, args[++i]);
+                given.add(arg);
+            }
+            else if (positional == 0) {
+                options.filename = arg;
+                positional++;
+            }
+            else if (positional == 1) {
+                options.numBuffers = parseCount(arg, "numBuffers");
+                positional++;
+            }
+            else if (positional == 2) {
+                options.statFilename = arg;
+                positional++;
+            }
+            else {
+                throw new IllegalArgumentException("Unexpected argument "
+                    + arg);
+            }
+        }
+        if (options.replayFilename != null && options.numBuffers < 0
+            && options.poolMemory < 0 && options.filename != null) {
+            // a replay has no file to sort, so "--replay t 64" means 64
+            // buffers
+            options.numBuffers = parseCount(options.filename, "numBuffers");
+            options.filename = null;
+        }
+        if (options.filename == null && options.replayFilename == null) {
+            throw new IllegalArgumentException("No file to sort");
+        }
+        if (options.numBuffers < 0 && options.poolMemory < 0) {
+            throw new IllegalArgumentException(
+                "Give either numBuffers or --pool-memory");
+        }
+        if (!options.getSchema().isDefault() && (options.outputFilename != null
+            || options.algorithm.equals(ALGORITHM_MERGE) || options.algorithm
+                .equals(ALGORITHM_COUNTING))) {
+            throw new IllegalArgumentException("Only quicksort in place, the "
+                + "index sort and the sample sort handle a record layout "
+                + "other than the default");
+        }
+        if (options.outputFilename != null) {
+            for (String name : NOT_STREAMED) {
+                if (given.contains(name)) {
+                    throw new IllegalArgumentException(name + " does not go "
+                        + "with --output, which always streams through the "
+                        + "merge sort");
+                }
+            }
+            if (given.contains("--algorithm") && !options.algorithm.equals(
+                ALGORITHM_MERGE)) {
+                throw new IllegalArgumentException("--output always streams "
+                    + "through the merge sort, not " + options.algorithm);
+            }
+        }
+        return options;
+    }
+
+
+    /**
+     * Applies one --name value option
+     *
+     * @param name
+     *            - option name including the dashes
+     * @param value
+     *            - value given for it
+     */
+    private void setOption(String name, String value) {
+        if (name.equals("--pool-memory")) {
+            poolMemory = parseSize(value);
+        }
+        else if (name.equals("--block-size")) {
+            long size = parseSize(value);
+            if (size > BufferPool.MAX_BLOCK_SIZE) {
+                throw new IllegalArgumentException("Block size too large: "
+                    + value);
+            }
+            BufferPool.checkBlockSize((int)size);
+            blockSize = (int)size;
+        }
+        else if (name.equals("--backend")) {
+            if (!value.equals(BACKEND_FILE) && !value.equals(BACKEND_MMAP)) {
+                throw new IllegalArgumentException("Unknown backend " + value);
+            }
+            backend = value;
+        }
+        else if (name.equals("--algorithm")) {
+            if (!value.equals(ALGORITHM_QUICKSORT) && !value.equals(
+                ALGORITHM_MERGE) && !value.equals(ALGORITHM_COUNTING)
+                && !value.equals(ALGORITHM_INDEX) && !value.equals(
+                    ALGORITHM_SAMPLE)) {
+                throw new IllegalArgumentException("Unknown algorithm "
+                    + value);
+            }
+            algorithm = value;
+        }
+        else if (name.equals("--threads")) {
+            threads = parseCount(value, "threads");
+        }
+        else if (name.equals("--stripes")) {
+            stripes = parseCount(value, "stripes");
+        }
+        else if (name.equals("--policy")) {
+            if (!Arrays.asList(ReplacementPolicy.NAMES).contains(value)) {
+                throw new IllegalArgumentException("Unknown policy " + value);
+            }
+            policy = value;
+        }
+        else if (name.equals("--trace")) {
+            traceFilename = value;
+        }
+        else if (name.equals("--replay")) {
+            replayFilename = value;
+        }
+        else if (name.equals("--write-behind")) {
+            writeBehind = value.equals("0") ? 0 : parseCount(value,
+                "write-behind");
+            if (writeBehind > 100) {
+                throw new IllegalArgumentException(
+                    "write-behind is a percent, got " + value);
+            }
+        }
+        else if (name.equals("--prefetch")) {
+            prefetch = value.equals("0") ? 0 : parseCount(value, "prefetch");
+        }
+        else if (name.equals("--partition")) {
+            if (!value.equals(PARTITION_THREE_WAY) && !value.equals(
+                PARTITION_TWO_WAY)) {
+                throw new IllegalArgumentException("Unknown partition "
+                    + value);
+            }
+            partition = value;
+        }
+        else if (name.equals("--batch-memory")) {
+            batchMemory = parseSize(value);
+        }
+        else if (name.equals("--output")) {
+            outputFilename = value;
+        }
+        else if (name.equals("--record-size")) {
+            recordSize = parseCount(value, "record-size");
+        }
+        else if (name.equals("--key-offset")) {
+            keyOffset = value.equals("0") ? 0 : parseCount(value,
+                "key-offset");
+        }
+        else if (name.equals("--key-type")) {
+            if (!Arrays.asList(KEY_TYPES).contains(value)) {
+                throw new IllegalArgumentException("Unknown key type "
+                    + value);
+            }
+            keyType = value;
+        }
+        else if (name.equals("--byte-order")) {
+            if (value.equals("big")) {
+                byteOrder = ByteOrder.BIG_ENDIAN;
+            }
+            else if (value.equals("little")) {
+                byteOrder = ByteOrder.LITTLE_ENDIAN;
+            }
+            else {
+                throw new IllegalArgumentException("Unknown byte order "
+                    + value);
+            }
+        }
+        else if (name.equals("--bucket-dirs")) {
+            String[] names = value.split(",");
+            bucketDirectories = new File[names.length];
+            for (int i = 0; i < names.length; i++) {
+                bucketDirectories[i] = new File(names[i]);
+                if (!bucketDirectories[i].isDirectory()) {
+                    throw new IllegalArgumentException("Not a directory: "
+                        + names[i]);
+                }
+            }
+        }
+        else {
+            throw new IllegalArgumentException("Unknown option " + name);
+        }
+    }
+
+
+    /**
+     * Parses a size such as 4096, 64k, 512m or 2g
+     *
+     * @param text
+     *            - size to parse
+     * @return size in bytes
+     */
+    public static long parseSize(String text) {
+        String digits = text.trim().toLowerCase();
+        long unit = 1;
+        if (digits.endsWith("b")) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        if (digits.endsWith("k")) {
+            unit = 1L << 10;
+        }
+        else if (digits.endsWith("m")) {
+            unit = 1L << 20;
+        }
+        else if (digits.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        long value;
+        try {
+            value = Long.parseLong(digits);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad size: " + text);
+        }
+        if (value <= 0 || value > Long.MAX_VALUE / unit) {
+            throw new IllegalArgumentException("Bad size: " + text);
+        }
+        return value * unit;
+    }
+
+
+    /**
+     * Parses a positive count
+     *
+     * @param text
+     *            - number to parse
+     * @param what
+     *            - name of the value for error messages
+     * @return the count
+     */
+    private static int parseCount(String text, String what) {
+        int value;
+        try {
+            value = Integer.parseInt(text);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + what + ": " + text);
+        }
+        if (value < 1) {
+            throw new IllegalArgumentException(what + " must be positive, got "
+                + text);
+        }
+        return value;
+    }
+
+
+    /**
+     * Gets the name of the file to sort
+     *
+     * @return file name
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+
+    /**
+     * Gets the name of the stat file
+     *
+     * @return stat file name, null if none was given
+     */
+    public String getStatFilename() {
+        return statFilename;
+    }
+
+
+    /**
+     * Gets the block size
+     *
+     * @return bytes per block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Gets the storage backend
+     *
+     * @return BACKEND_FILE or BACKEND_MMAP
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+
+    /**
+     * Gets the sorting algorithm
+     *
+     * @return ALGORITHM_QUICKSORT, ALGORITHM_MERGE, ALGORITHM_COUNTING,
+     *         ALGORITHM_INDEX or ALGORITHM_SAMPLE
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+
+    /**
+     * Gets the number of threads to sort with
+     *
+     * @return worker thread count, 1 for a sequential sort
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+
+    /**
+     * Gets the number of lock stripes to split the pool into. A single
+     * thread gets one stripe unless told otherwise.
+     *
+     * @return stripe count
+     */
+    public int getStripes() {
+        if (stripes > 0) {
+            return stripes;
+        }
+        return threads == 1 ? 1 : threads * 4;
+    }
+
+
+    /**
+     * Gets the buffer replacement policy
+     *
+     * @return one of ReplacementPolicy.NAMES
+     */
+    public String getPolicy() {
+        return policy;
+    }
+
+
+    /**
+     * Gets the file to record the pool's block accesses to
+     *
+     * @return trace file name, null if none was given
+     */
+    public String getTraceFilename() {
+        return traceFilename;
+    }
+
+
+    /**
+     * Gets the trace to replay instead of sorting
+     *
+     * @return trace file name, null when sorting
+     */
+    public String getReplayFilename() {
+        return replayFilename;
+    }
+
+
+    /**
+     * Gets how many dirty buffers the pool may hold before write-behind
+     * starts cleaning them
+     *
+     * @return high-water mark in buffers, 0 when write-behind is off
+     */
+    public int getWriteBehind() {
+        if (writeBehind == 0) {
+            return 0;
+        }
+        return Math.max(1, (int)((long)getNumBuffers() * writeBehind / 100));
+    }
+
+
+    /**
+     * Gets how many blocks to read ahead of a sequential scan
+     *
+     * @return read-ahead depth in blocks, 0 when prefetching is off
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+
+    /**
+     * Gets how quicksort partitions
+     *
+     * @return PARTITION_THREE_WAY or PARTITION_TWO_WAY
+     */
+    public String getPartition() {
+        return partition;
+    }
+
+
+    /**
+     * Checks whether quicksort should gather keys equal to the pivot
+     *
+     * @return true for the three-way partition
+     */
+    public boolean isThreeWay() {
+        return partition.equals(PARTITION_THREE_WAY);
+    }
+
+
+    /**
+     * Gets where to stream the sorted records instead of sorting in place
+     *
+     * @return output file name, STANDARD_OUTPUT, or null to sort in place
+     */
+    public String getOutputFilename() {
+        return outputFilename;
+    }
+
+
+    /**
+     * Gets where the sample sort puts its bucket files
+     *
+     * @return directories to spread the buckets over, null for next to the
+     *         file being sorted
+     */
+    public File[] getBucketDirectories() {
+        return bucketDirectories;
+    }
+
+
+    /**
+     * Gets the layout of the records in the file
+     *
+     * @return record layout
+     * @throws IllegalArgumentException
+     *             - if the key does not fit the record or a size is not
+     *             allowed
+     */
+    public RecordSchema getSchema() {
+        int type = Arrays.asList(KEY_TYPES).indexOf(keyType);
+        return new RecordSchema(recordSize, keyOffset, 2 << (type % 3),
+            type >= 3, byteOrder);
+    }
+
+
+    /**
+     * Gets how many records quicksort may sort at once in an array
+     *
+     * @return records per in-memory batch, 0 to sort through the pool only
+     */
+    public int getBatchRecords() {
+        return (int)Math.min(batchMemory / 4, Integer.MAX_VALUE - 8);
+    }
+
+
+    /**
+     * Gets the number of buffers the pool should hold. A memory budget wins
+     * over an explicit count.
+     *
+     * @return number of buffers
+     */
+    public int getNumBuffers() {
+        if (poolMemory > 0) {
+            return BufferPool.buffersForMemory(poolMemory, blockSize);
+        }
+        return numBuffers;
+    }
+
+}
@@ -0,0 +1,133 @@
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * 2Q (Johnson and Shasha). New blocks go into a FIFO queue, A1in. Blocks
+ * thrown out of A1in are remembered, without their data, in A1out, and only
+ * a block seen again while in A1out is promoted to the main LRU queue, Am.
+ * A scan that touches each block once therefore only churns A1in and leaves
+ * the blocks in Am alone.
+ *
+ * @author {Gabriel Holder}
+ * @version {October 2023}
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private static final int IN_QUEUE = 1;
+    private static final int MAIN_QUEUE = 2;
+
+    private SlotList a1in;
+    private SlotList am;
+    private LinkedHashSet<Long> a1out;
+    private long[] blockIDs;
+    private int[] queue;
+    private int inTarget;
+    private int outLimit;
+
+    /**
+     * Creates the policy with the usual tuning: A1in holds a quarter of the
+     * slots and A1out remembers half as many blocks as there are slots
+     *
+     * @param capacity
+     *            - number of slots
+     */
+    public TwoQueuePolicy(int capacity) {
+        int[] prev = new int[capacity];
+        int[] next = new int[capacity];
+        a1in = new SlotList(prev, next);
+        am = new SlotList(prev, next);
+        a1out = new LinkedHashSet<Long>();
+        blockIDs = new long[capacity];
+        queue = new int[capacity];
+        inTarget = Math.max(1, capacity / 4);
+        outLimit = Math.max(1, capacity / 2);
+    }
+
+
+    @Override
+    public void insert(int slot, long blockID) {
+        blockIDs[slot] = blockID;
+        if (a1out.remove(blockID)) {
+            queue[slot] = MAIN_QUEUE;
+            am.addFirst(slot);
+        }
+        else {
+            queue[slot] = IN_QUEUE;
+            a1in.addFirst(slot);
+        }
+    }
+
+
+    @Override
+    public void access(int slot) {
+        // a hit in A1in is treated as correlated and leaves the block be
+        if (queue[slot] == MAIN_QUEUE) {
+            am.moveToFront(slot);
+        }
+    }
+
+
+    @Override
+    public int victim(
+        long incoming,
+        IntPredicate preferred,
+        IntPredicate evictable) {
+        int slot = pick(preferred, PREFERRED_WINDOW);
+        if (slot < 0) {
+            slot = pick(evictable, Integer.MAX_VALUE);
+        }
+        if (slot < 0) {
+            return -1;
+        }
+        if (queue[slot] == IN_QUEUE) {
+            a1in.remove(slot);
+            a1out.add(blockIDs[slot]);
+            if (a1out.size() > outLimit) {
+                a1out.remove(a1out.iterator().next());
+            }
+        }
+        else {
+            am.remove(slot);
+        }
+        queue[slot] = 0;
+        return slot;
+    }
+
+
+    /**
+     * Finds the slot 2Q would throw out among those that match, A1in first
+     * while it is over its target
+     *
+     * @param matching
+     *            - tells whether a slot may be picked
+     * @param limit
+     *            - most slots to look at in each queue
+     * @return slot to throw out, -1 if none match
+     */
+    private int pick(IntPredicate matching, int limit) {
+        int slot = -1;
+        if (a1in.size() > inTarget || am.size() == 0) {
+            slot = a1in.lastMatching(matching, limit);
+        }
+        if (slot < 0) {
+            slot = am.lastMatching(matching, limit);
+        }
+        if (slot < 0) {
+            slot = a1in.lastMatching(matching, limit);
+        }
+        return slot;
+    }
+
+
+    @Override
+    public void remove(int slot) {
+        if (queue[slot] == IN_QUEUE) {
+            a1in.remove(slot);
+        }
+        else if (queue[slot] == MAIN_QUEUE) {
+            am.remove(slot);
+        }
+        queue[slot] = 0;
+    }
+
+}